@@ -0,0 +1,36 @@
+package com.stlo.api.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.stlo.api.ApiUsersApplication;
+
+/**
+ * Boots the application on a random port against its own in-memory database.
+ */
+final class BenchmarkApplication {
+
+	private BenchmarkApplication() {
+		// static helpers only
+	}
+
+	static ConfigurableApplicationContext start(String... properties) {
+		var args = new ArrayList<String>(List.of(
+				"--spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_ON_EXIT=FALSE",
+				"--server.port=0",
+				// one user logs in over and over, the throttle would answer after the first attempts
+				"--security.login.throttle.enabled=false",
+				"--spring.main.banner-mode=off",
+				"--logging.level.root=WARN",
+				"--logging.level.org.springframework=WARN"));
+		for (var property : properties) {
+			args.add("--" + property);
+		}
+
+		return SpringApplication.run(ApiUsersApplication.class, args.toArray(String[]::new));
+	}
+}
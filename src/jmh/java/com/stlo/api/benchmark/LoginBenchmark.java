@@ -0,0 +1,66 @@
+package com.stlo.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.stlo.api.model.Login;
+import com.stlo.api.model.db.User;
+import com.stlo.api.service.UsersService;
+
+/**
+ * Full login path (query, hashing executor, BCrypt) per encoder strength.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+
+	private static final String PASSWORD = "benchmark-password";
+
+	@Param({ "8", "10", "12" })
+	int strength;
+
+	private ConfigurableApplicationContext context;
+	private UsersService usersService;
+	private Login login;
+
+	@Setup
+	public void setup() {
+		this.context = BenchmarkApplication.start(
+				"security.hashing.bcrypt.strength=" + this.strength,
+				"security.credentials.password=" + PASSWORD);
+		this.usersService = this.context.getBean(UsersService.class);
+
+		var user = new User();
+		user.setName("benchmark");
+		this.login = new Login();
+		this.login.setUserId(this.usersService.createUser(user).getId());
+		this.login.setPassword(PASSWORD);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public Object login() {
+		return this.usersService.login(this.login, null).join();
+	}
+}
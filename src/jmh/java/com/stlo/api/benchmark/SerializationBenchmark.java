@@ -0,0 +1,71 @@
+package com.stlo.api.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.db.User;
+
+/**
+ * Jackson serialization of the response bodies, configured like the application's mapper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private static final int PAGE_SIZE = 20;
+
+	private ObjectMapper objectMapper;
+	private User user;
+	private UserDto userDto;
+	private Page<User> page;
+
+	@Setup
+	public void setup() {
+		this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		this.user = new User(1L, "Jon");
+		this.userDto = new UserDto(1L, "Jon");
+
+		var users = new ArrayList<User>(PAGE_SIZE);
+		for (long id = 1; id <= PAGE_SIZE; id++) {
+			users.add(new User(id, "user-" + id));
+		}
+		this.page = new PageImpl<>(users, PageRequest.of(3, PAGE_SIZE), 200_000);
+	}
+
+	@Benchmark
+	public byte[] user() throws JsonProcessingException {
+		return this.objectMapper.writeValueAsBytes(this.user);
+	}
+
+	@Benchmark
+	public byte[] userDto() throws JsonProcessingException {
+		return this.objectMapper.writeValueAsBytes(this.userDto);
+	}
+
+	@Benchmark
+	public byte[] userPage() throws JsonProcessingException {
+		return this.objectMapper.writeValueAsBytes(this.page);
+	}
+}
@@ -0,0 +1,63 @@
+package com.stlo.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.stlo.api.service.UsersService;
+
+/**
+ * Offset pagination at growing offsets against {@value #ROWS} users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserPageBenchmark {
+
+	static final int ROWS = 200_000;
+	private static final int PAGE_SIZE = 20;
+
+	@Param({ "0", "100", "1000", "9999" })
+	int page;
+
+	private ConfigurableApplicationContext context;
+	private UsersService usersService;
+	private Pageable pageable;
+
+	@Setup
+	public void setup() {
+		this.context = BenchmarkApplication.start();
+		this.usersService = this.context.getBean(UsersService.class);
+		this.context.getBean(JdbcTemplate.class)
+				.update("INSERT INTO users (id, name) SELECT X + 100, 'user-' || X FROM SYSTEM_RANGE(1, ?)", ROWS);
+		this.pageable = PageRequest.of(this.page, PAGE_SIZE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public Object getUserPage() {
+		return this.usersService.getUserPage(this.pageable);
+	}
+}
@@ -0,0 +1,71 @@
+package com.stlo.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.stlo.api.config.CacheConfig;
+import com.stlo.api.model.db.User;
+import com.stlo.api.service.UsersService;
+
+/**
+ * Create and cached read paths of the service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsersServiceBenchmark {
+
+	private static final long USER_ID = 1L;
+
+	private ConfigurableApplicationContext context;
+	private UsersService usersService;
+	private Cache usersCache;
+
+	@Setup
+	public void setup() {
+		// no default hash, the benchmark measures the inserts and not BCrypt
+		this.context = BenchmarkApplication.start("security.credentials.default-mode=lazy");
+		this.usersService = this.context.getBean(UsersService.class);
+		this.usersCache = this.context.getBean(CacheManager.class).getCache(CacheConfig.USERS);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public Object createUser() {
+		var user = new User();
+		user.setName("benchmark");
+		return this.usersService.createUser(user);
+	}
+
+	@Benchmark
+	public Object getUserCacheHit() {
+		return this.usersService.getUser(USER_ID);
+	}
+
+	@Benchmark
+	public Object getUserCacheMiss() {
+		this.usersCache.evict(USER_ID);
+		return this.usersService.getUser(USER_ID);
+	}
+}
@@ -0,0 +1,37 @@
+package com.stlo.api.config;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Async requests keep the timeout of the servlet container unless their handler sets one in
+ * {@link #TIMEOUT_ATTRIBUTE}. Return types like <code>StreamingResponseBody</code> carry no
+ * timeout of their own, so a long export does not raise the timeout of every other request.
+ */
+@Configuration
+public class AsyncRequestConfig implements WebMvcConfigurer {
+
+	public static final String TIMEOUT_ATTRIBUTE = AsyncRequestConfig.class.getName() + ".timeout";
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+
+			@Override
+			public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+				var timeout = (Duration) request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+				if (timeout != null && request instanceof AsyncWebRequest) {
+					((AsyncWebRequest) request).setTimeout(timeout.toMillis());
+				}
+			}
+		});
+	}
+}
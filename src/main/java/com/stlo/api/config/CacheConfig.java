@@ -0,0 +1,26 @@
+package com.stlo.api.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caches are Caffeine caches configured with <code>spring.cache.*</code>, their hit, miss and
+ * eviction statistics are published by Actuator.
+ */
+@EnableCaching
+@Configuration
+public class CacheConfig {
+
+	public static final String USERS = "users";
+
+	@Value("${users.cache.negative:true}")
+	private boolean negativeCaching;
+
+	/**
+	 * Whether lookups of unknown ids are cached as well.
+	 */
+	public boolean isNegativeCaching() {
+		return negativeCaching;
+	}
+}
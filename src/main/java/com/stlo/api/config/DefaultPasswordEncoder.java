@@ -0,0 +1,33 @@
+package com.stlo.api.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Matches the <code>{default}</code> marker of an uninitialised credential against the
+ * configured default password. The marker never counts as current, so the first successful
+ * login replaces it with a real hash.
+ */
+final class DefaultPasswordEncoder implements PasswordEncoder {
+
+	private final byte[] defaultPassword;
+
+	DefaultPasswordEncoder(String defaultPassword) {
+		this.defaultPassword = defaultPassword.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String encode(CharSequence rawPassword) {
+		throw new UnsupportedOperationException("Default password marker cannot encode passwords");
+	}
+
+	@Override
+	public boolean matches(CharSequence rawPassword, String encodedPassword) {
+		if (rawPassword == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(this.defaultPassword, rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,95 @@
+package com.stlo.api.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Threads beyond the request threads and the scheduler: background writers, each on a thread of
+ * its own so a slow one holds up neither requests nor scheduled jobs, and the virtual threads of
+ * <code>server.execution-mode=virtual</code>.
+ */
+@Configuration
+public class ExecutionConfig {
+
+	static final String VIRTUAL = "virtual";
+
+	private static final int REHASH_QUEUE_CAPACITY = 1000;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ExecutionConfig.class);
+
+	/**
+	 * Runs the drains of the {@link com.stlo.api.service.CredentialOutbox}, BCrypt included. One
+	 * drain runs and one waits, further triggers are dropped as the waiting drain covers them.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService credentialOutboxWriter() {
+		return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+				runnable -> daemon(runnable, "credential-outbox"), new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	/**
+	 * Writes the hashes of passwords rehashed after a login, so no hashing worker waits for a
+	 * connection. Rehashes beyond the queue are rejected and retried on the next login.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService passwordRehashWriter() {
+		return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(REHASH_QUEUE_CAPACITY),
+				runnable -> daemon(runnable, "password-rehash"));
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		var thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Runs every request on its own virtual thread. Tomcat's worker pool and the MVC async
+	 * executor are replaced, so blocking in a request no longer holds a scarce platform thread.
+	 * The connection pool and the password hashing pool remain the real limits. Virtual threads
+	 * need a Java 21 runtime, the application is still compiled for Java 11 and looks the
+	 * executor up at startup.
+	 */
+	@Configuration
+	@ConditionalOnProperty(name = "server.execution-mode", havingValue = ExecutionConfig.VIRTUAL)
+	static class VirtualThreads implements WebMvcConfigurer {
+
+		@Bean(destroyMethod = "shutdown")
+		public ExecutorService virtualThreadExecutor() {
+			try {
+				var executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				LOG.info("Serving requests on virtual threads");
+				return executor;
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("server.execution-mode=" + VIRTUAL + " needs Java 21 or later, running on "
+						+ Runtime.version(), e);
+			}
+		}
+
+		@Bean
+		public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler(ExecutorService virtualThreadExecutor) {
+			return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+		}
+
+		/**
+		 * Streaming responses are written from the MVC async executor.
+		 */
+		@Override
+		public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+			configurer.setTaskExecutor(new ConcurrentTaskExecutor(virtualThreadExecutor()));
+		}
+	}
+}
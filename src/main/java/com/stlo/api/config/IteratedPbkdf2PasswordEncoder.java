@@ -0,0 +1,65 @@
+package com.stlo.api.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+/**
+ * PBKDF2 hashes stored as <code>iterations$hash</code>. {@link Pbkdf2PasswordEncoder} keeps the
+ * iteration count out of the hash, so it can't tell an outdated hash and verifies every hash
+ * with the configured count. Here a hash is verified with the count it was written with and
+ * reported by {@link #upgradeEncoding(String)} while that is lower than the configured one.
+ * Hashes without a count are verified with the configured count and always upgraded.
+ */
+final class IteratedPbkdf2PasswordEncoder implements PasswordEncoder {
+
+	private static final char SEPARATOR = '$';
+
+	private final int iterations;
+	private final Map<Integer, Pbkdf2PasswordEncoder> encoders = new ConcurrentHashMap<>();
+
+	IteratedPbkdf2PasswordEncoder(int iterations) {
+		this.iterations = iterations;
+	}
+
+	@Override
+	public String encode(CharSequence rawPassword) {
+		return this.iterations + String.valueOf(SEPARATOR) + encoder(this.iterations).encode(rawPassword);
+	}
+
+	@Override
+	public boolean matches(CharSequence rawPassword, String encodedPassword) {
+		if (rawPassword == null || encodedPassword == null) {
+			return false;
+		}
+		int separator = encodedPassword.indexOf(SEPARATOR);
+		if (separator < 0) {
+			return encoder(this.iterations).matches(rawPassword, encodedPassword);
+		}
+		int iterations = iterationsOf(encodedPassword, separator);
+		return iterations > 0 && encoder(iterations).matches(rawPassword, encodedPassword.substring(separator + 1));
+	}
+
+	@Override
+	public boolean upgradeEncoding(String encodedPassword) {
+		if (encodedPassword == null) {
+			return false;
+		}
+		int separator = encodedPassword.indexOf(SEPARATOR);
+		return separator < 0 || iterationsOf(encodedPassword, separator) < this.iterations;
+	}
+
+	private Pbkdf2PasswordEncoder encoder(int iterations) {
+		return this.encoders.computeIfAbsent(iterations, count -> new Pbkdf2PasswordEncoder("", 16, count, 256));
+	}
+
+	private static int iterationsOf(String encodedPassword, int separator) {
+		try {
+			return Integer.parseInt(encodedPassword.substring(0, separator));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.stlo.api.config;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+@Configuration
+public class MetricsConfig {
+
+	/**
+	 * Replaces the JSON converter of Spring Boot, response bodies are timed as
+	 * <code>users.serialization</code> tagged with the type of the body.
+	 */
+	@Bean
+	public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper,
+			MeterRegistry meterRegistry) {
+		return new TimedJsonConverter(objectMapper, meterRegistry);
+	}
+
+	/**
+	 * Smile for clients sending <code>Accept: application/x-jackson-smile</code>, configured like
+	 * the JSON mapper.
+	 */
+	@Bean
+	public MappingJackson2SmileHttpMessageConverter mappingJackson2SmileHttpMessageConverter(
+			Jackson2ObjectMapperBuilder builder, MeterRegistry meterRegistry) {
+		return new TimedSmileConverter(builder.factory(new SmileFactory()).build(), meterRegistry);
+	}
+
+	/**
+	 * CBOR for clients sending <code>Accept: application/cbor</code>, configured like the JSON
+	 * mapper.
+	 */
+	@Bean
+	public MappingJackson2CborHttpMessageConverter mappingJackson2CborHttpMessageConverter(
+			Jackson2ObjectMapperBuilder builder, MeterRegistry meterRegistry) {
+		return new TimedCborConverter(builder.factory(new CBORFactory()).build(), meterRegistry);
+	}
+
+	static class TimedJsonConverter extends MappingJackson2HttpMessageConverter {
+
+		private final MeterRegistry meterRegistry;
+
+		TimedJsonConverter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+			super(objectMapper);
+			this.meterRegistry = meterRegistry;
+		}
+
+		@Override
+		protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+				throws IOException, HttpMessageNotWritableException {
+			var sample = Timer.start(this.meterRegistry);
+			try {
+				super.writeInternal(object, type, outputMessage);
+			} finally {
+				stop(sample, this.meterRegistry, object, "json");
+			}
+		}
+	}
+
+	static class TimedSmileConverter extends MappingJackson2SmileHttpMessageConverter {
+
+		private final MeterRegistry meterRegistry;
+
+		TimedSmileConverter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+			super(objectMapper);
+			this.meterRegistry = meterRegistry;
+		}
+
+		@Override
+		protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+				throws IOException, HttpMessageNotWritableException {
+			var sample = Timer.start(this.meterRegistry);
+			try {
+				super.writeInternal(object, type, outputMessage);
+			} finally {
+				stop(sample, this.meterRegistry, object, "smile");
+			}
+		}
+	}
+
+	static class TimedCborConverter extends MappingJackson2CborHttpMessageConverter {
+
+		private final MeterRegistry meterRegistry;
+
+		TimedCborConverter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+			super(objectMapper);
+			this.meterRegistry = meterRegistry;
+		}
+
+		@Override
+		protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+				throws IOException, HttpMessageNotWritableException {
+			var sample = Timer.start(this.meterRegistry);
+			try {
+				super.writeInternal(object, type, outputMessage);
+			} finally {
+				stop(sample, this.meterRegistry, object, "cbor");
+			}
+		}
+	}
+
+	private static void stop(Timer.Sample sample, MeterRegistry meterRegistry, Object object, String format) {
+		sample.stop(Timer.builder("users.serialization")
+				.description("Time spent writing response bodies")
+				.tag("type", object.getClass().getSimpleName())
+				.tag("format", format)
+				.register(meterRegistry));
+	}
+}
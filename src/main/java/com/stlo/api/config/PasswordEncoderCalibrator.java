@@ -0,0 +1,61 @@
+package com.stlo.api.config;
+
+import java.util.function.IntFunction;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+/**
+ * Measures hashing cost on the current hardware and derives encoder parameters
+ * that hit a target verification time.
+ */
+final class PasswordEncoderCalibrator {
+
+	static final int BCRYPT_MIN_STRENGTH = 10;
+	static final int BCRYPT_MAX_STRENGTH = 31;
+	static final int PBKDF2_MIN_ITERATIONS = 185000;
+
+	private static final int BCRYPT_PROBE_STRENGTH = 6;
+	private static final int PBKDF2_PROBE_ITERATIONS = 10000;
+	private static final int PROBE_ROUNDS = 5;
+	private static final String PROBE_PASSWORD = "calibration-probe";
+
+	private PasswordEncoderCalibrator() {
+		// static helpers only
+	}
+
+	/**
+	 * BCrypt cost doubles with every strength step, so one cheap probe is enough to extrapolate.
+	 */
+	static int bcryptStrength(long targetMillis) {
+		double probeNanos = probe(strength -> new BCryptPasswordEncoder(strength), BCRYPT_PROBE_STRENGTH);
+		double steps = Math.log(targetMillis * 1_000_000d / probeNanos) / Math.log(2);
+		int strength = BCRYPT_PROBE_STRENGTH + (int) Math.round(steps);
+
+		return Math.max(BCRYPT_MIN_STRENGTH, Math.min(BCRYPT_MAX_STRENGTH, strength));
+	}
+
+	/**
+	 * PBKDF2 cost grows linearly with the iteration count.
+	 */
+	static int pbkdf2Iterations(long targetMillis) {
+		double probeNanos = probe(iterations -> new Pbkdf2PasswordEncoder("", 16, iterations, 256), PBKDF2_PROBE_ITERATIONS);
+		long iterations = Math.round(PBKDF2_PROBE_ITERATIONS * (targetMillis * 1_000_000d / probeNanos));
+
+		return (int) Math.max(PBKDF2_MIN_ITERATIONS, Math.min(Integer.MAX_VALUE, iterations));
+	}
+
+	private static double probe(IntFunction<PasswordEncoder> encoderFactory, int cost) {
+		var encoder = encoderFactory.apply(cost);
+		var hash = encoder.encode(PROBE_PASSWORD); // warm up
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < PROBE_ROUNDS; i++) {
+			long start = System.nanoTime();
+			encoder.matches(PROBE_PASSWORD, hash);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return Math.max(best, 1);
+	}
+}
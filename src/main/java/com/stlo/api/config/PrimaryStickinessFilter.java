@@ -0,0 +1,85 @@
+package com.stlo.api.config;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.Assert;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.stlo.api.repository.ReplicaContext;
+
+/**
+ * Sends the reads of a client to the primary for <code>users.replicas.sticky</code> after its
+ * own write, so it sees the write even if the replicas lag. A write sets a cookie with the end
+ * of that time, the cookie works with every instance. Login is a <code>POST</code> that only
+ * reads and sets none. For asynchronous requests only the work on the request thread uses the
+ * primary.
+ */
+public class PrimaryStickinessFilter extends OncePerRequestFilter {
+
+	static final String COOKIE = "users-primary-until";
+
+	private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+	private static final String LOGIN_PATH = "/api/rest/users/login";
+
+	private final Clock clock;
+	private final Duration sticky;
+
+	PrimaryStickinessFilter(final Clock clock, final Duration sticky) {
+		Assert.notNull(clock, Clock.class + " must not be null");
+		Assert.isTrue(!sticky.isNegative(), "primary stickiness must not be negative");
+
+		this.clock = clock;
+		this.sticky = sticky;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		long now = this.clock.millis();
+		boolean write = !READ_METHODS.contains(request.getMethod()) && !LOGIN_PATH.equals(request.getRequestURI());
+		if (write && !this.sticky.isZero()) {
+			// before the chain, the response may be committed after it
+			var cookie = new Cookie(COOKIE, String.valueOf(now + this.sticky.toMillis()));
+			cookie.setPath("/");
+			cookie.setHttpOnly(true);
+			cookie.setMaxAge((int) Math.max(1, this.sticky.toSeconds()));
+			response.addCookie(cookie);
+		}
+
+		// a cookie beyond the sticky time was not set by a write
+		long until = stickyUntil(request);
+		if (write || until <= now || until > now + this.sticky.toMillis()) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		try (var scope = ReplicaContext.requirePrimary()) {
+			filterChain.doFilter(request, response);
+		}
+	}
+
+	private static long stickyUntil(HttpServletRequest request) {
+		if (request.getCookies() == null) {
+			return 0;
+		}
+		for (var cookie : request.getCookies()) {
+			if (COOKIE.equals(cookie.getName())) {
+				try {
+					return Long.parseLong(cookie.getValue());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+}
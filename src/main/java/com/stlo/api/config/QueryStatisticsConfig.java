@@ -0,0 +1,63 @@
+package com.stlo.api.config;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.stlo.api.monitoring.QueryStatistics;
+import com.stlo.api.monitoring.QueryStatisticsEndpoint;
+import com.stlo.api.monitoring.QueryStatisticsFilter;
+
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/**
+ * Opt-in statement statistics with <code>users.query-stats.enabled=true</code>. The data source
+ * is wrapped by a proxy that reports every executed statement to {@link QueryStatistics}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.query-stats.enabled", havingValue = "true")
+public class QueryStatisticsConfig {
+
+	@Bean
+	public QueryStatistics queryStatistics(
+			@Value("${users.query-stats.budget:4}") int budget,
+			@Value("${users.query-stats.slow-threshold:50ms}") Duration slowThreshold,
+			@Value("${users.query-stats.slow-statements:100}") int slowStatements) {
+		return new QueryStatistics(budget, slowThreshold, slowStatements);
+	}
+
+	@Bean
+	public QueryStatisticsFilter queryStatisticsFilter(QueryStatistics queryStatistics) {
+		return new QueryStatisticsFilter(queryStatistics);
+	}
+
+	@Bean
+	public QueryStatisticsEndpoint queryStatisticsEndpoint(QueryStatistics queryStatistics) {
+		return new QueryStatisticsEndpoint(queryStatistics);
+	}
+
+	@Bean
+	public static BeanPostProcessor queryStatisticsDataSourceProxy(ObjectProvider<QueryStatistics> queryStatistics) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (!(bean instanceof DataSource) || bean instanceof ProxyDataSource) {
+					return bean;
+				}
+				return ProxyDataSourceBuilder.create((DataSource) bean)
+						.name(beanName)
+						.listener(queryStatistics.getObject())
+						.build();
+			}
+		};
+	}
+}
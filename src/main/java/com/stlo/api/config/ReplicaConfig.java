@@ -0,0 +1,74 @@
+package com.stlo.api.config;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.stlo.api.monitoring.ReplicasEndpoint;
+import com.stlo.api.service.ReplicaMonitor;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Opt-in read replicas with <code>users.replicas.enabled=true</code>. Read-only transactions
+ * use a replica of <code>users.replicas.urls</code> within <code>users.replicas.max-lag</code>,
+ * everything else the primary configured by <code>spring.datasource</code>. The replicas are
+ * expected to be kept in sync by the database, schema included.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.replicas.enabled", havingValue = "true")
+public class ReplicaConfig {
+
+	@Bean(destroyMethod = "close")
+	public ReplicaDataSources replicaDataSources(
+			DataSourceProperties properties,
+			Environment environment,
+			@Value("${users.replicas.urls}") List<String> urls,
+			@Value("${users.sharding.enabled:false}") boolean sharded) {
+
+		if (sharded) {
+			throw new IllegalStateException("Read replicas are not supported with users.sharding.enabled=true");
+		}
+		var primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+		return new ReplicaDataSources(primary, urls);
+	}
+
+	@Bean
+	public ReplicaMonitor replicaMonitor(
+			ReplicaDataSources dataSources,
+			@Value("${users.replicas.max-lag:PT2S}") Duration maxLag) {
+		return new ReplicaMonitor(dataSources, maxLag);
+	}
+
+	/**
+	 * The connection is taken on the first statement, once the transaction is marked read-only.
+	 */
+	@Bean
+	@Primary
+	public DataSource dataSource(ReplicaDataSources dataSources, ReplicaMonitor replicaMonitor) {
+		return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(dataSources, replicaMonitor));
+	}
+
+	@Bean
+	public PrimaryStickinessFilter primaryStickinessFilter(@Value("${users.replicas.sticky:PT5S}") Duration sticky) {
+		return new PrimaryStickinessFilter(Clock.systemUTC(), sticky);
+	}
+
+	@Bean
+	public ReplicasEndpoint replicasEndpoint(ReplicaMonitor replicaMonitor) {
+		return new ReplicasEndpoint(replicaMonitor);
+	}
+}
@@ -0,0 +1,64 @@
+package com.stlo.api.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.util.Assert;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Connection pools of the primary and its read replicas. The primary is configured by
+ * <code>spring.datasource</code>, the replicas copy its pool settings with a url of
+ * <code>users.replicas.urls</code> each and read-only connections.
+ */
+public class ReplicaDataSources implements AutoCloseable {
+
+	public static final String PRIMARY = "primary";
+
+	private final HikariDataSource primary;
+	private final List<HikariDataSource> replicas = new ArrayList<>();
+
+	public ReplicaDataSources(HikariDataSource primary, List<String> urls) {
+		Assert.notNull(primary, HikariDataSource.class + " must not be null");
+		Assert.notEmpty(urls, "read replicas need at least one url in users.replicas.urls");
+
+		this.primary = primary;
+		for (var url : urls) {
+			var config = new HikariConfig();
+			primary.copyStateTo(config);
+			config.setJdbcUrl(url);
+			config.setReadOnly(true);
+			config.setPoolName((primary.getPoolName() != null ? primary.getPoolName() : "users") + "-" + replicaName(this.replicas.size()));
+			this.replicas.add(new HikariDataSource(config));
+		}
+	}
+
+	/**
+	 * Name of the replica in metrics and logs, counted from 1.
+	 */
+	public static String replicaName(int replica) {
+		return "replica-" + (replica + 1);
+	}
+
+	public DataSource getPrimary() {
+		return this.primary;
+	}
+
+	public int getReplicaCount() {
+		return this.replicas.size();
+	}
+
+	public DataSource getReplica(int replica) {
+		return this.replicas.get(replica);
+	}
+
+	@Override
+	public void close() {
+		this.replicas.forEach(HikariDataSource::close);
+		this.primary.close();
+	}
+}
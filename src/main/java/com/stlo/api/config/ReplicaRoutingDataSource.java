@@ -0,0 +1,49 @@
+package com.stlo.api.config;
+
+import java.util.HashMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.stlo.api.repository.ReplicaContext;
+import com.stlo.api.service.ReplicaMonitor;
+
+/**
+ * Hands out connections of a replica within the lag tolerance for read-only transactions, of the
+ * primary otherwise. Decides when the connection is taken, so it must be wrapped by a
+ * <code>LazyConnectionDataSourceProxy</code> that takes it after the transaction started.
+ */
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	private final ReplicaMonitor replicaMonitor;
+
+	ReplicaRoutingDataSource(ReplicaDataSources dataSources, ReplicaMonitor replicaMonitor) {
+		this.replicaMonitor = replicaMonitor;
+
+		var targets = new HashMap<Object, Object>();
+		targets.put(ReplicaDataSources.PRIMARY, counted(dataSources.getPrimary(), ReplicaDataSources.PRIMARY));
+		for (int replica = 0; replica < dataSources.getReplicaCount(); replica++) {
+			var name = ReplicaDataSources.replicaName(replica);
+			targets.put(name, counted(dataSources.getReplica(replica), name));
+		}
+		setTargetDataSources(targets);
+		setLenientFallback(false);
+		afterPropertiesSet();
+	}
+
+	private DataSource counted(DataSource dataSource, String name) {
+		return this.replicaMonitor.countQueries(dataSource, name);
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		int replica = -1;
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !ReplicaContext.isPrimaryRequired()) {
+			replica = this.replicaMonitor.selectReplica();
+		}
+		ReplicaContext.setServedByReplica(replica >= 0);
+		return replica < 0 ? ReplicaDataSources.PRIMARY : ReplicaDataSources.replicaName(replica);
+	}
+}
@@ -1,28 +1,87 @@
 package com.stlo.api.config;
 
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
 public class SecurityConfig {
 
+	static final String BCRYPT = "bcrypt";
+	static final String PBKDF2 = "pbkdf2";
+	static final String DEFAULT = "default";
+
+	/** Stored instead of a hash for credentials that still use the default password. */
+	public static final String DEFAULT_PASSWORD_MARKER = "{" + DEFAULT + "}";
+
+	private static final Logger LOG = LoggerFactory.getLogger(SecurityConfig.class);
+
 	@Value("${security.credentials.password}")
 	private String defaultPassword;
 
 	@Value("${security.disabled}")
 	private boolean securityDisabled;
 
+	@Value("${security.hashing.encoder:" + BCRYPT + "}")
+	private String encoder;
+
+	@Value("${security.hashing.target-millis:50}")
+	private long targetMillis;
+
+	@Value("${security.hashing.bcrypt.strength:0}")
+	private int bcryptStrength;
+
+	@Value("${security.hashing.pbkdf2.iterations:0}")
+	private int pbkdf2Iterations;
+
 	public String getDefaultPassword() {
 		return defaultPassword;
 	}
 
-	@Bean 
-	public BCryptPasswordEncoder passwordEncoder() {
-		return new BCryptPasswordEncoder();
+	/**
+	 * Hashes are stored with an <code>{id}</code> prefix. Hashes without a prefix are legacy
+	 * BCrypt hashes. Hashes of another encoder or a lower cost are reported by
+	 * {@link PasswordEncoder#upgradeEncoding(String)} and rehashed on the next login, this
+	 * includes the {@link #DEFAULT_PASSWORD_MARKER}. BCrypt hashes carry their strength, PBKDF2
+	 * hashes their iteration count, see {@link IteratedPbkdf2PasswordEncoder}.
+	 */
+	@Bean
+	public PasswordEncoder passwordEncoder() {
+		if (!BCRYPT.equals(this.encoder) && !PBKDF2.equals(this.encoder)) {
+			throw new IllegalStateException("Unsupported password encoder: " + this.encoder);
+		}
+
+		int strength = this.bcryptStrength;
+		if (strength <= 0) {
+			strength = BCRYPT.equals(this.encoder)
+					? PasswordEncoderCalibrator.bcryptStrength(this.targetMillis)
+					: PasswordEncoderCalibrator.BCRYPT_MIN_STRENGTH;
+		}
+		int iterations = this.pbkdf2Iterations;
+		if (iterations <= 0) {
+			iterations = PBKDF2.equals(this.encoder)
+					? PasswordEncoderCalibrator.pbkdf2Iterations(this.targetMillis)
+					: PasswordEncoderCalibrator.PBKDF2_MIN_ITERATIONS;
+		}
+		LOG.info("Password encoder '{}' (bcrypt strength {}, pbkdf2 iterations {}, target {} ms)",
+				this.encoder, strength, iterations, this.targetMillis);
+
+		var bcrypt = new BCryptPasswordEncoder(strength);
+		var delegating = new DelegatingPasswordEncoder(this.encoder, Map.of(
+				BCRYPT, bcrypt,
+				PBKDF2, new IteratedPbkdf2PasswordEncoder(iterations),
+				DEFAULT, new DefaultPasswordEncoder(this.defaultPassword)));
+		delegating.setDefaultPasswordEncoderForMatches(bcrypt);
+		return delegating;
 	}
 
 	@Bean
@@ -32,4 +91,4 @@ public class SecurityConfig {
 		}
 		return http.build();
 	}
-}
\ No newline at end of file
+}
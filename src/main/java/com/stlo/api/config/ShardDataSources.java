@@ -0,0 +1,47 @@
+package com.stlo.api.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.util.Assert;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Connection pools of the shards. The first shard is configured by <code>spring.datasource</code>,
+ * the others copy its pool settings with a url of <code>users.sharding.urls</code> each.
+ */
+public class ShardDataSources implements AutoCloseable {
+
+	private final List<HikariDataSource> dataSources = new ArrayList<>();
+
+	public ShardDataSources(HikariDataSource first, List<String> urls) {
+		Assert.notNull(first, HikariDataSource.class + " must not be null");
+		Assert.notEmpty(urls, "sharded storage needs at least one url besides spring.datasource.url");
+
+		this.dataSources.add(first);
+		for (var url : urls) {
+			var config = new HikariConfig();
+			first.copyStateTo(config);
+			config.setJdbcUrl(url);
+			config.setPoolName((first.getPoolName() != null ? first.getPoolName() : "users") + "-shard-" + this.dataSources.size());
+			this.dataSources.add(new HikariDataSource(config));
+		}
+	}
+
+	public int size() {
+		return this.dataSources.size();
+	}
+
+	public DataSource get(int shard) {
+		return this.dataSources.get(shard);
+	}
+
+	@Override
+	public void close() {
+		this.dataSources.forEach(HikariDataSource::close);
+	}
+}
@@ -0,0 +1,31 @@
+package com.stlo.api.config;
+
+import java.util.HashMap;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import com.stlo.api.repository.ShardContext;
+
+/**
+ * Hands out connections of the shard bound by {@link ShardContext}, of the first shard if none is
+ * bound.
+ */
+class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+	ShardRoutingDataSource(ShardDataSources shards) {
+		var targets = new HashMap<Object, Object>();
+		for (int shard = 0; shard < shards.size(); shard++) {
+			targets.put(shard, shards.get(shard));
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(shards.get(0));
+		setLenientFallback(false);
+		afterPropertiesSet();
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		int shard = ShardContext.shard();
+		return shard == ShardContext.UNBOUND ? null : shard;
+	}
+}
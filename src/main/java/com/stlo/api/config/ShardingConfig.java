@@ -0,0 +1,131 @@
+package com.stlo.api.config;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.stlo.api.monitoring.ShardsEndpoint;
+import com.stlo.api.repository.ShardBucketsRepository;
+import com.stlo.api.repository.UsersRepository;
+import com.stlo.api.service.ShardRebalancer;
+import com.stlo.api.service.ShardRouter;
+import com.stlo.api.service.UserChangeLog;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Users are stored in one database unless <code>users.sharding.enabled=true</code>. Then
+ * <code>spring.datasource</code> is the first shard and every url of
+ * <code>users.sharding.urls</code> another one, see {@link ShardRouter}.
+ */
+@Configuration
+public class ShardingConfig {
+
+	/** Sequences of further shards start at <code>shard << 40</code>, so ids of all shards stay unique. */
+	static final int SEQUENCE_SHARD_SHIFT = 40;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ShardingConfig.class);
+
+	@Bean
+	public ShardRouter shardRouter(
+			ObjectProvider<ShardDataSources> shards,
+			ObjectProvider<ShardBucketsRepository> bucketsRepository,
+			ObjectProvider<UsersRepository> usersRepository,
+			@Value("${users.sharding.fan-out-threads:0}") int fanOutThreads) {
+
+		var sharded = shards.getIfAvailable();
+		if (sharded == null) {
+			return ShardRouter.single();
+		}
+		return new ShardRouter(sharded.size(), bucketsRepository.getObject(), usersRepository.getObject(), fanOutThreads);
+	}
+
+	@Configuration
+	@ConditionalOnProperty(name = "users.sharding.enabled", havingValue = "true")
+	static class ShardedStorage {
+
+		@Bean(destroyMethod = "close")
+		public ShardDataSources shardDataSources(
+				DataSourceProperties properties,
+				Environment environment,
+				@Value("${users.sharding.urls}") List<String> urls) {
+
+			var first = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+			Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(first));
+			return new ShardDataSources(first, urls);
+		}
+
+		@Bean
+		@Primary
+		public DataSource dataSource(ShardDataSources shards) {
+			return new ShardRoutingDataSource(shards);
+		}
+
+		/**
+		 * The first shard is migrated as configured, the others with
+		 * <code>users.sharding.flyway.locations</code>, without sample data by default.
+		 */
+		@Bean
+		public FlywayMigrationStrategy shardedMigration(
+				ShardDataSources shards,
+				@Value("${users.sharding.flyway.locations:classpath:db/migration}") String[] locations) {
+
+			return flyway -> {
+				flyway.migrate();
+				for (int shard = 1; shard < shards.size(); shard++) {
+					Flyway.configure()
+							.configuration(flyway.getConfiguration())
+							.dataSource(shards.get(shard))
+							.locations(locations)
+							.load()
+							.migrate();
+					startSequence(shards.get(shard), (long) shard << SEQUENCE_SHARD_SHIFT);
+				}
+			};
+		}
+
+		private static void startSequence(DataSource shard, long start) {
+			var jdbc = new JdbcTemplate(shard);
+			var current = jdbc.queryForObject(
+					"SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'USERS_SEQ'", Long.class);
+			if (current < start) {
+				// a pooled block ends at the value taken, the first block starts at start + 1
+				jdbc.execute("ALTER SEQUENCE users_seq RESTART WITH " + (start + 50));
+				LOG.info("Sequence users_seq of a new shard starts at {}", start);
+			}
+		}
+
+		@Bean
+		public ShardRebalancer shardRebalancer(
+				ShardRouter shardRouter,
+				ShardDataSources shards,
+				UserChangeLog changeLog,
+				MeterRegistry meterRegistry,
+				@Value("${users.sharding.rebalance.batch-size:1000}") int batchSize) {
+			return new ShardRebalancer(shardRouter, shards, changeLog, meterRegistry, batchSize);
+		}
+
+		@Bean
+		public ShardsEndpoint shardsEndpoint(ShardRouter shardRouter, ShardRebalancer shardRebalancer,
+				UsersRepository usersRepository) {
+			return new ShardsEndpoint(shardRouter, shardRebalancer, usersRepository);
+		}
+	}
+}
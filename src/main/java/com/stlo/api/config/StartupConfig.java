@@ -0,0 +1,29 @@
+package com.stlo.api.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.stlo.api.service.CredentialCompactionJob;
+import com.stlo.api.service.CredentialOutbox;
+import com.stlo.api.service.ReplicaMonitor;
+import com.stlo.api.service.ShardRouter;
+import com.stlo.api.service.UserChangeLog;
+import com.stlo.api.service.UserSearchIndex;
+
+@Configuration
+public class StartupConfig {
+
+	/**
+	 * Beans created at startup even with <code>spring.main.lazy-initialization=true</code>. A job is
+	 * only scheduled once its bean exists, so every bean with a <code>@Scheduled</code> method is
+	 * listed: the outbox writer picks up the entries left by the last run, compactions, bucket map
+	 * reload and replica heartbeat must not wait for a first request. The search index must be
+	 * built before requests are accepted.
+	 */
+	@Bean
+	static LazyInitializationExcludeFilter eagerBeans() {
+		return LazyInitializationExcludeFilter.forBeanTypes(CredentialCompactionJob.class, CredentialOutbox.class,
+				UserChangeLog.class, ShardRouter.class, ReplicaMonitor.class, UserSearchIndex.class);
+	}
+}
@@ -1,24 +1,57 @@
 package com.stlo.api.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stlo.api.config.AsyncRequestConfig;
+import com.stlo.api.exception.BadRequestException;
 import com.stlo.api.exception.NotFoundException;
+import com.stlo.api.exception.TooManyRequestsException;
 import com.stlo.api.exception.UnauthorizedException;
+import com.stlo.api.model.BatchItemResult;
+import com.stlo.api.model.ChangePage;
+import com.stlo.api.model.CompactPage;
+import com.stlo.api.model.CursorPage;
 import com.stlo.api.model.Login;
+import com.stlo.api.model.UserDto;
 import com.stlo.api.model.db.User;
 import com.stlo.api.service.UsersService;
 
@@ -26,29 +59,241 @@ import com.stlo.api.service.UsersService;
 @RequestMapping("/api/rest/users")
 public class UsersController {
 
+	static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+	static final String TEXT_CSV_VALUE = "text/csv";
+	static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+	static final String CHANGE_SEQ_HEADER = "X-Change-Seq";
+	static final int MAX_PAGE_SIZE = 2000;
+	// ids of a bulk delete, they end up in one IN list per table
+	static final int MAX_BULK_DELETE = 2000;
+
 	final UsersService usersService;
+	final ObjectMapper objectMapper;
+	final String userCacheControl;
+	final String pageCacheControl;
+	final Duration maxChangesWait;
+	final Duration exportTimeout;
 
-	public UsersController(final UsersService usersService) {
+	public UsersController(
+			final UsersService usersService,
+			final ObjectMapper objectMapper,
+			@Value("${users.http.cache-control.user:no-cache}") final String userCacheControl,
+			@Value("${users.http.cache-control.page:no-cache}") final String pageCacheControl,
+			@Value("${users.changes.poll.max-wait:PT30S}") final Duration maxChangesWait,
+			@Value("${users.export.timeout:PT10M}") final Duration exportTimeout) {
 		Assert.notNull(usersService, UsersService.class + " must not be null");
+		Assert.notNull(objectMapper, ObjectMapper.class + " must not be null");
+		Assert.hasText(userCacheControl, "user cache control must not be empty");
+		Assert.hasText(pageCacheControl, "page cache control must not be empty");
+		Assert.notNull(maxChangesWait, "max changes wait must not be null");
+		Assert.notNull(exportTimeout, "export timeout must not be null");
+		Assert.isTrue(!exportTimeout.isNegative() && !exportTimeout.isZero(), "export timeout must be positive");
 		this.usersService = usersService;
+		this.objectMapper = objectMapper;
+		this.userCacheControl = userCacheControl;
+		this.pageCacheControl = pageCacheControl;
+		this.maxChangesWait = maxChangesWait;
+		this.exportTimeout = exportTimeout;
 	}
 
 	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-	ResponseEntity<User> createUser(@Valid @RequestBody User user) {
+	ResponseEntity<UserDto> createUser(@Valid @RequestBody User user) {
+
+		return ResponseEntity.ok(UserDto.of(this.usersService.createUser(user)));
+	}
+
+	@PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	ResponseEntity<List<BatchItemResult>> createUsers(@RequestBody List<User> users) {
+
+		// items are validated one by one by the service, invalid items do not fail the batch
+		return ResponseEntity.ok(this.usersService.createUsers(users.iterator()));
+	}
+
+	@PostMapping(path = "/batch", consumes = APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	ResponseEntity<List<BatchItemResult>> createUsersStream(InputStream body) throws IOException {
+
+		// one user per line, read while importing instead of buffering the whole request
+		try (MappingIterator<User> users = this.objectMapper.readerFor(User.class).readValues(body)) {
+			return ResponseEntity.ok(this.usersService.createUsers(new LenientIterator(users)));
+		}
+	}
+
+	/**
+	 * The ETag is the version of the user. It is read with the cached projection, a matching
+	 * <code>If-None-Match</code> is answered with 304 before the body is serialized.
+	 */
+	@GetMapping(path = "/{userId}", produces = { MediaType.APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE })
+	ResponseEntity<UserDto> getUser(@PathVariable("userId") Long userId) {
+
+		var user = this.usersService.getUser(userId).orElseThrow(() -> new NotFoundException());
+
+		var response = ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, this.userCacheControl);
+		if (user.getVersion() != null) {
+			response.eTag(String.valueOf(user.getVersion()));
+		}
+		return response.body(user);
+	}
+
+	/**
+	 * Weak ETag over ids and versions of the page and the total, a matching
+	 * <code>If-None-Match</code> saves the serialization and the transfer.
+	 */
+	@GetMapping(produces = { MediaType.APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE })
+	ResponseEntity<CompactPage<UserDto>> getUserPage(@PageableDefault(size = 20, page = 0) Pageable pageable) {
+
+		var page = this.usersService.getUserPage(pageable);
+
+		return ResponseEntity.ok()
+				.eTag(pageETag(page))
+				.header(HttpHeaders.CACHE_CONTROL, this.pageCacheControl)
+				.body(CompactPage.of(page));
+	}
+
+	private static String pageETag(Page<UserDto> page) {
+		long hash = 1125899906842597L;
+		hash = 31 * hash + page.getTotalElements();
+		hash = 31 * hash + page.getNumber();
+		hash = 31 * hash + page.getSize();
+		for (var user : page) {
+			hash = 31 * hash + Objects.hashCode(user.getId());
+			hash = 31 * hash + Objects.hashCode(user.getVersion());
+		}
+		return "W/\"" + Long.toHexString(hash) + "\"";
+	}
+
+	/**
+	 * Users with a name word starting with every word of <code>q</code>, ignoring case and accents.
+	 */
+	@GetMapping(path = "/search", produces = { MediaType.APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE })
+	ResponseEntity<CompactPage<UserDto>> searchUsers(
+			@RequestParam("q") String query,
+			@RequestParam(name = "page", defaultValue = "0") int page,
+			@RequestParam(name = "size", defaultValue = "20") int size) {
+
+		if (query.isBlank()) {
+			throw new BadRequestException("Query must not be empty");
+		}
+		var pageable = PageRequest.of(Math.max(0, page), Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+
+		return ResponseEntity.ok(CompactPage.of(this.usersService.searchUsers(query, pageable)));
+	}
+
+	/**
+	 * Cursor mode of the user listing, selected by the <code>after</code> parameter. An empty
+	 * cursor starts at the first user.
+	 */
+	@GetMapping(params = "after", produces = { MediaType.APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE })
+	ResponseEntity<CursorPage<UserDto>> getUserSlice(
+			@RequestParam("after") String after,
+			@RequestParam(name = "size", defaultValue = "20") int size) {
+
+		long afterId;
+		try {
+			afterId = after.isEmpty() ? Long.MIN_VALUE : CursorPage.decodeCursor(after);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("Invalid cursor");
+		}
 
-		return ResponseEntity.ok(this.usersService.createUser(user));
+		var slice = this.usersService.getUserSlice(afterId, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+		var content = slice.getContent();
+		var next = slice.hasNext() ? CursorPage.encodeCursor(content.get(content.size() - 1).getId()) : null;
+
+		return ResponseEntity.ok(new CursorPage<>(content, next));
+	}
+
+	/**
+	 * Streams all users in id order as NDJSON (default) or CSV, the response is written while
+	 * rows are read. The <code>X-Change-Seq</code> header is the seq to poll changes after, one
+	 * per shard separated by commas. An export followed by the changes after it is a current copy
+	 * of all users. The export times out after <code>users.export.timeout</code>, other async
+	 * requests keep the timeout of the container.
+	 */
+	@GetMapping(path = "/export")
+	ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(name = "format", defaultValue = "ndjson") String format,
+			HttpServletRequest request) {
+
+		MediaType contentType;
+		StreamingResponseBody body;
+		if ("csv".equalsIgnoreCase(format)) {
+			contentType = MediaType.parseMediaType(TEXT_CSV_VALUE + ";charset=UTF-8");
+			body = this::writeCsv;
+		} else if ("ndjson".equalsIgnoreCase(format)) {
+			contentType = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+			body = this::writeNdjson;
+		} else {
+			throw new BadRequestException("Unsupported export format: " + format);
+		}
+		request.setAttribute(AsyncRequestConfig.TIMEOUT_ATTRIBUTE, this.exportTimeout);
+		// read before the export starts, changes committed meanwhile are polled again
+		return ResponseEntity.ok()
+				.contentType(contentType)
+				.header(CHANGE_SEQ_HEADER, this.usersService.getChangeSeqs().stream().map(String::valueOf)
+						.collect(Collectors.joining(",")))
+				.body(body);
 	}
 
-	@GetMapping(path = "/{userId}", produces = MediaType.APPLICATION_JSON_VALUE)
-	ResponseEntity<User> getUser(@PathVariable("userId") Long userId) {
+	/**
+	 * Long poll of created and removed users of a shard in seq order. Without changes after
+	 * <code>since</code> the response waits up to <code>wait</code> seconds for the next one.
+	 * <code>next</code> of the response is the <code>since</code> of the next poll of the shard.
+	 * Answers 410 if the changes after <code>since</code> were truncated.
+	 */
+	@GetMapping(path = "/changes", produces = MediaType.APPLICATION_JSON_VALUE)
+	CompletableFuture<ChangePage> getChanges(
+			@RequestParam(name = "shard", defaultValue = "0") int shard,
+			@RequestParam("since") long since,
+			@RequestParam(name = "limit", defaultValue = "100") int limit,
+			@RequestParam(name = "wait", required = false) Long waitSeconds) {
+
+		if (since < 0) {
+			throw new BadRequestException("since must not be negative");
+		}
+		var wait = waitSeconds == null ? this.maxChangesWait : Duration.ofSeconds(Math.max(0, waitSeconds));
+		if (wait.compareTo(this.maxChangesWait) > 0) {
+			wait = this.maxChangesWait;
+		}
+
+		return this.usersService.getChanges(shard, since, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)), wait);
+	}
 
-		return ResponseEntity.ok(this.usersService.getUser(userId).orElseThrow(() -> new NotFoundException()));
+	private void writeNdjson(OutputStream out) throws IOException {
+		var writer = this.objectMapper.writer();
+		try (var generator = this.objectMapper.getFactory().createGenerator(out)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			// every line ends with its own newline instead of the default space between values
+			generator.setRootValueSeparator(null);
+			this.usersService.exportUsers(user -> {
+				try {
+					writer.writeValue(generator, user);
+					generator.writeRaw('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
 	}
 
-	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
-	ResponseEntity<Page<User>> getUserPage(@PageableDefault(size = 20, page = 0) Pageable pageable) {
+	private void writeCsv(OutputStream out) throws IOException {
+		var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		writer.write("id,name\n");
+		this.usersService.exportUsers(user -> {
+			try {
+				writer.write(user.getId() + "," + escapeCsv(user.getName()) + "\n");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		writer.flush();
+	}
 
-		return ResponseEntity.ok(this.usersService.getUserPage(pageable));
+	private static String escapeCsv(String value) {
+		if (value == null) {
+			return "";
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
 	}
 
 	@DeleteMapping(path = "/{userId}")
@@ -59,13 +304,84 @@ public class UsersController {
 		return ResponseEntity.noContent().build();
 	}
 
+	/**
+	 * Bulk variant, <code>?ids=1,2,3</code>. Unknown ids are ignored. With sharded storage every
+	 * shard commits on its own, a failure can leave the users of other shards removed.
+	 */
+	@DeleteMapping(params = "ids")
+	ResponseEntity<Object> removeUsers(@RequestParam("ids") List<Long> ids) {
+		if (ids.size() > MAX_BULK_DELETE) {
+			throw new BadRequestException("At most " + MAX_BULK_DELETE + " ids per request");
+		}
+
+		this.usersService.removeUsers(ids);
+
+		return ResponseEntity.noContent().build();
+	}
+
 	@PostMapping(path = "/login", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-	ResponseEntity<User> loginUser(@Valid @RequestBody Login login) {
+	CompletableFuture<ResponseEntity<UserDto>> loginUser(@Valid @RequestBody Login login, HttpServletRequest request) {
+
+		// completes asynchronously, the request thread is released while the password is hashed. The
+		// remote address is the one of the proxy unless server.forward-headers-strategy is set
+		return this.usersService.login(login, request.getRemoteAddr())
+				.thenApply(user -> ResponseEntity.ok(user.orElseThrow(() -> new UnauthorizedException())));
+	}
+
+	@ExceptionHandler(TooManyRequestsException.class)
+	ResponseEntity<Object> tooManyRequests(TooManyRequestsException e) {
+
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+				.build();
+	}
+
+	/**
+	 * Reports unreadable input as a <code>null</code> item. Reading stops when the parser cannot
+	 * find the start of the next value.
+	 */
+	private static final class LenientIterator implements Iterator<User> {
+
+		private final MappingIterator<User> delegate;
+		private boolean malformed;
+		private boolean done;
+
+		LenientIterator(MappingIterator<User> delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.malformed) {
+				return true;
+			}
+			if (this.done) {
+				return false;
+			}
+			try {
+				return this.delegate.hasNextValue();
+			} catch (JsonProcessingException e) {
+				this.malformed = true;
+				this.done = true;
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 
-		if (this.usersService.login(login)) {
-			return ResponseEntity
-					.ok(this.usersService.getUser(login.getUserId()).orElseThrow(() -> new UnauthorizedException()));
+		@Override
+		public User next() {
+			if (this.malformed) {
+				this.malformed = false;
+				return null;
+			}
+			try {
+				return this.delegate.nextValue();
+			} catch (JsonProcessingException e) {
+				return null;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
 		}
-		throw new UnauthorizedException();
 	}
 }
@@ -0,0 +1,20 @@
+package com.stlo.api.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class BadRequestException extends RuntimeException {
+	private static final long serialVersionUID = -2230514474839201785L;
+
+	private final String reason;
+
+	public BadRequestException(String reason) {
+		this.reason = reason;
+	}
+
+	@Override
+	public String getMessage() {
+		return this.reason;
+	}
+}
@@ -0,0 +1,20 @@
+package com.stlo.api.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.GONE)
+public class GoneException extends RuntimeException {
+	private static final long serialVersionUID = -6143802925370231854L;
+
+	private final String reason;
+
+	public GoneException(String reason) {
+		this.reason = reason;
+	}
+
+	@Override
+	public String getMessage() {
+		return this.reason;
+	}
+}
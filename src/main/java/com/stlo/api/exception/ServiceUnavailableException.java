@@ -0,0 +1,14 @@
+package com.stlo.api.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+	private static final long serialVersionUID = 4387220152394106551L;
+
+	@Override
+	public String getMessage() {
+		return "Service temporarily overloaded";
+	}
+}
@@ -0,0 +1,24 @@
+package com.stlo.api.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS)
+public class TooManyRequestsException extends RuntimeException {
+	private static final long serialVersionUID = -2254190571382514012L;
+
+	private final long retryAfterSeconds;
+
+	public TooManyRequestsException(long retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public long getRetryAfterSeconds() {
+		return this.retryAfterSeconds;
+	}
+
+	@Override
+	public String getMessage() {
+		return "Too many requests";
+	}
+}
@@ -0,0 +1,57 @@
+package com.stlo.api.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of a single item of a batch create request.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+	public enum Status {
+		CREATED, INVALID, FAILED
+	}
+
+	private final long index;
+
+	private final Long id;
+
+	private final Status status;
+
+	private final String message;
+
+	private BatchItemResult(long index, Long id, Status status, String message) {
+		this.index = index;
+		this.id = id;
+		this.status = status;
+		this.message = message;
+	}
+
+	public static BatchItemResult created(long index, Long id) {
+		return new BatchItemResult(index, id, Status.CREATED, null);
+	}
+
+	public static BatchItemResult invalid(long index, String message) {
+		return new BatchItemResult(index, null, Status.INVALID, message);
+	}
+
+	public static BatchItemResult failed(long index, String message) {
+		return new BatchItemResult(index, null, Status.FAILED, message);
+	}
+
+	public long getIndex() {
+		return this.index;
+	}
+
+	public Long getId() {
+		return this.id;
+	}
+
+	public Status getStatus() {
+		return this.status;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+}
@@ -0,0 +1,46 @@
+package com.stlo.api.model;
+
+import java.util.List;
+
+/**
+ * Changes of a shard in seq order and the seq to poll the next changes of the shard after.
+ * <code>next</code> is the seq of the last change or, without changes, the seq that was polled
+ * after. Seqs of different shards are not related.
+ */
+public class ChangePage {
+
+	private final int shard;
+
+	private final List<UserChangeDto> changes;
+
+	private final long next;
+
+	public ChangePage(int shard, List<UserChangeDto> changes, long next) {
+		this.shard = shard;
+		this.changes = changes;
+		this.next = next;
+	}
+
+	public static ChangePage of(int shard, List<UserChangeDto> changes, long since) {
+		return new ChangePage(shard, changes, changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq());
+	}
+
+	/**
+	 * The first <code>limit</code> changes of this page.
+	 */
+	public ChangePage limit(int limit) {
+		return this.changes.size() <= limit ? this : of(this.shard, this.changes.subList(0, limit), this.next);
+	}
+
+	public int getShard() {
+		return this.shard;
+	}
+
+	public List<UserChangeDto> getChanges() {
+		return this.changes;
+	}
+
+	public long getNext() {
+		return this.next;
+	}
+}
@@ -0,0 +1,62 @@
+package com.stlo.api.model;
+
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Page of a result without the request and sort metadata Spring writes for a {@link Page}.
+ * <code>totalElements</code> is absent if no count was queried.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CompactPage<T> {
+
+	private final List<T> content;
+
+	private final int page;
+
+	private final int size;
+
+	private final boolean last;
+
+	private final Long totalElements;
+
+	public CompactPage(List<T> content, int page, int size, boolean last, Long totalElements) {
+		this.content = content;
+		this.page = page;
+		this.size = size;
+		this.last = last;
+		this.totalElements = totalElements;
+	}
+
+	/**
+	 * Takes the total of a {@link Page}, a plain {@link Slice} has none.
+	 */
+	public static <T> CompactPage<T> of(Slice<T> slice) {
+		var total = slice instanceof Page ? ((Page<T>) slice).getTotalElements() : null;
+		return new CompactPage<>(slice.getContent(), slice.getNumber(), slice.getSize(), slice.isLast(), total);
+	}
+
+	public List<T> getContent() {
+		return this.content;
+	}
+
+	public int getPage() {
+		return this.page;
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	public boolean isLast() {
+		return this.last;
+	}
+
+	public Long getTotalElements() {
+		return this.totalElements;
+	}
+}
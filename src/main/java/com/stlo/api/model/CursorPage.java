@@ -0,0 +1,43 @@
+package com.stlo.api.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Slice of an id-ordered result with an opaque cursor to the next slice. <code>next</code> is
+ * absent on the last slice.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CursorPage<T> {
+
+	private final List<T> content;
+
+	private final String next;
+
+	public CursorPage(List<T> content, String next) {
+		this.content = content;
+		this.next = next;
+	}
+
+	public static String encodeCursor(long id) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the cursor was not created by {@link #encodeCursor(long)}
+	 */
+	public static long decodeCursor(String cursor) {
+		return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+	}
+
+	public List<T> getContent() {
+		return this.content;
+	}
+
+	public String getNext() {
+		return this.next;
+	}
+}
@@ -0,0 +1,47 @@
+package com.stlo.api.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.stlo.api.model.db.UserChange;
+
+/**
+ * Read-only view of a {@link UserChange}. <code>name</code> is absent on removals.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserChangeDto {
+
+	private final long seq;
+
+	private final UserChange.Type type;
+
+	private final Long userId;
+
+	private final String name;
+
+	public UserChangeDto(long seq, UserChange.Type type, Long userId, String name) {
+		this.seq = seq;
+		this.type = type;
+		this.userId = userId;
+		this.name = name;
+	}
+
+	public long getSeq() {
+		return this.seq;
+	}
+
+	public UserChange.Type getType() {
+		return this.type;
+	}
+
+	public Long getUserId() {
+		return this.userId;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public String toString() {
+		return "UserChangeDto [seq=" + seq + ", type=" + type + ", userId=" + userId + "]";
+	}
+}
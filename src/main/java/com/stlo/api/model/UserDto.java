@@ -0,0 +1,51 @@
+package com.stlo.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.stlo.api.model.db.User;
+
+/**
+ * Read-only view of a {@link User}, detached from any persistence context.
+ */
+public class UserDto {
+
+	private final Long id;
+
+	private final String name;
+
+	private final Long version;
+
+	public UserDto(Long id, String name) {
+		this(id, name, null);
+	}
+
+	public UserDto(Long id, String name, Long version) {
+		this.id = id;
+		this.name = name;
+		this.version = version;
+	}
+
+	public static UserDto of(User user) {
+		return new UserDto(user.getId(), user.getName(), user.getVersion());
+	}
+
+	public Long getId() {
+		return this.id;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * <code>null</code> if the projection was read without it.
+	 */
+	@JsonIgnore
+	public Long getVersion() {
+		return this.version;
+	}
+
+	@Override
+	public String toString() {
+		return "UserDto [id=" + id + ", name=" + name + "]";
+	}
+}
@@ -0,0 +1,24 @@
+package com.stlo.api.model;
+
+/**
+ * Projection of a user joined with its stored password hash, loaded with a single query on login.
+ */
+public class UserLogin {
+
+	private final UserDto user;
+
+	private final String password;
+
+	public UserLogin(Long id, String name, String password) {
+		this.user = new UserDto(id, name);
+		this.password = password;
+	}
+
+	public UserDto getUser() {
+		return this.user;
+	}
+
+	public String getPassword() {
+		return this.password;
+	}
+}
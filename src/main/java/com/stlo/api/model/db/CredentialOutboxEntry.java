@@ -0,0 +1,65 @@
+package com.stlo.api.model.db;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
+
+/**
+ * A credential of a new user that is not written yet.
+ */
+@Entity
+@Table(name = "credential_outbox")
+public class CredentialOutboxEntry implements Persistable<Long> {
+
+	@Id
+	@Column(name = "user_id")
+	private Long userId;
+
+	@Column(name = "created_at", nullable = false)
+	private Instant createdAt;
+
+	// the id is assigned, without this flag save() would merge and select first
+	@Transient
+	private boolean newEntry = true;
+
+	private CredentialOutboxEntry() {
+		// for JPA
+	}
+
+	public CredentialOutboxEntry(Long userId, Instant createdAt) {
+		this.userId = userId;
+		this.createdAt = createdAt;
+	}
+
+	@Override
+	public Long getId() {
+		return this.userId;
+	}
+
+	@Override
+	public boolean isNew() {
+		return this.newEntry;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		this.newEntry = false;
+	}
+
+	public Long getUserId() {
+		return this.userId;
+	}
+
+	public Instant getCreatedAt() {
+		return this.createdAt;
+	}
+}
@@ -0,0 +1,60 @@
+package com.stlo.api.model.db;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
+
+/**
+ * The shard that stores the users of a bucket.
+ */
+@Entity
+@Table(name = "shard_buckets")
+public class ShardBucket implements Persistable<Integer> {
+
+	@Id
+	private Integer bucket;
+
+	private int shard;
+
+	// the id is assigned, without this flag save() would merge and select first
+	@Transient
+	private boolean newEntry = true;
+
+	private ShardBucket() {
+		// for JPA
+	}
+
+	public ShardBucket(Integer bucket, int shard) {
+		this.bucket = bucket;
+		this.shard = shard;
+	}
+
+	@Override
+	public Integer getId() {
+		return this.bucket;
+	}
+
+	@Override
+	public boolean isNew() {
+		return this.newEntry;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		this.newEntry = false;
+	}
+
+	public Integer getBucket() {
+		return this.bucket;
+	}
+
+	public int getShard() {
+		return this.shard;
+	}
+}
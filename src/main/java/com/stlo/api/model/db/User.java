@@ -6,20 +6,45 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.NotEmpty;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 @Entity
 @Table(name = "users")
 public class User {
 
+	// pooled sequence instead of IDENTITY, so inserts can be batched. Carries the bucket with sharded storage
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+	@GenericGenerator(name = "users_seq", strategy = "com.stlo.api.repository.BucketedIdGenerator", parameters = {
+			@Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "users_seq"),
+			@Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50") })
 	private Long id;
 
 	@NotEmpty
 	@Column(nullable = false, unique = false)
 	private String name;
 
+	// sent as ETag, not in the body
+	@Version
+	@Column(nullable = false)
+	private Long version;
+
+	public User() {
+		// for JPA and JSON binding
+	}
+
+	public User(Long id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
 	public Long getId() {
 		return this.id;
 	}
@@ -32,6 +57,11 @@ public class User {
 		this.name = name;
 	}
 
+	@JsonIgnore
+	public Long getVersion() {
+		return this.version;
+	}
+
 	@Override
 	public String toString() {
 		return "User [id=" + id + ", name=" + name + "]";
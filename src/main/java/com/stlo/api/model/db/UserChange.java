@@ -0,0 +1,96 @@
+package com.stlo.api.model.db;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
+
+/**
+ * An entry of the user change log.
+ */
+@Entity
+@Table(name = "user_changes")
+public class UserChange implements Persistable<Long> {
+
+	public enum Type {
+		CREATED,
+		REMOVED
+	}
+
+	@Id
+	private Long seq;
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false)
+	private Type type;
+
+	@Column(name = "user_id", nullable = false)
+	private Long userId;
+
+	/** <code>null</code> for removed users. */
+	private String name;
+
+	@Column(name = "created_at", nullable = false)
+	private Instant createdAt;
+
+	// the seq is assigned, without this flag save() would merge and select first
+	@Transient
+	private boolean newEntry = true;
+
+	private UserChange() {
+		// for JPA
+	}
+
+	public UserChange(Long seq, Type type, Long userId, String name, Instant createdAt) {
+		this.seq = seq;
+		this.type = type;
+		this.userId = userId;
+		this.name = name;
+		this.createdAt = createdAt;
+	}
+
+	@Override
+	public Long getId() {
+		return this.seq;
+	}
+
+	@Override
+	public boolean isNew() {
+		return this.newEntry;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		this.newEntry = false;
+	}
+
+	public Long getSeq() {
+		return this.seq;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	public Long getUserId() {
+		return this.userId;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public Instant getCreatedAt() {
+		return this.createdAt;
+	}
+}
@@ -2,24 +2,29 @@ package com.stlo.api.model.db;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
 import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
 
 @Entity
 @Table(name = "credentials")
-public class UserCredential {
+public class UserCredential implements Persistable<Long> {
 
+	// shares the primary key of the user, no sequence and no second index
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
-	private Long id;
-
-	@Column(nullable = false, unique = true)
+	@Column(name = "user_id")
 	private Long userId;
 
 	@Column(nullable = false, unique = false)
 	private String password;
+
+	// the id is assigned, without this flag save() would merge and select first
+	@Transient
+	private boolean newCredential = true;
 	
 	private UserCredential() {
 		//hide default
@@ -30,6 +35,22 @@ public class UserCredential {
 		setPassword(password);
 	}
 
+	@Override
+	public Long getId() {
+		return userId;
+	}
+
+	@Override
+	public boolean isNew() {
+		return newCredential;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		this.newCredential = false;
+	}
+
 	public Long getUserId() {
 		return userId;
 	}
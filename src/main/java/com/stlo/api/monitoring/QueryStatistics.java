@@ -0,0 +1,276 @@
+package com.stlo.api.monitoring;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.proxy.ParameterSetOperation;
+
+/**
+ * Counts JDBC statements per scope, usually one HTTP request, and keeps aggregates per endpoint.
+ * Statements are attributed to the scope open on the executing thread, statements on other
+ * threads (background rehash) are counted as unscoped. Scopes issuing more statements than the
+ * budget are logged as N+1 suspects, statements slower than the threshold are kept with the
+ * shape of their parameters, never with the values.
+ */
+public class QueryStatistics implements QueryExecutionListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(QueryStatistics.class);
+
+	static final String UNSCOPED = "unscoped";
+
+	private final ThreadLocal<Scope> current = new ThreadLocal<>();
+	private final Map<String, EndpointStatistics> endpoints = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedDeque<SlowStatement> slowStatements = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger slowStatementCount = new AtomicInteger();
+
+	private final int budget;
+	private final Duration slowThreshold;
+	private final int slowStatementLimit;
+
+	public QueryStatistics(int budget, Duration slowThreshold, int slowStatementLimit) {
+		Assert.isTrue(budget > 0, "query budget must be positive");
+		Assert.notNull(slowThreshold, Duration.class + " must not be null");
+		Assert.isTrue(slowStatementLimit > 0, "slow statement limit must be positive");
+
+		this.budget = budget;
+		this.slowThreshold = slowThreshold;
+		this.slowStatementLimit = slowStatementLimit;
+	}
+
+	/**
+	 * Opens a scope on the current thread, statements are counted until it is closed.
+	 */
+	public Scope openScope(String name) {
+		var scope = new Scope(name, this.current.get());
+		this.current.set(scope);
+		return scope;
+	}
+
+	@Override
+	public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		// counted after execution
+	}
+
+	@Override
+	public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		var scope = this.current.get();
+		if (scope != null) {
+			scope.statements++;
+			scope.elapsedMillis += execInfo.getElapsedTime();
+		} else {
+			endpoint(UNSCOPED).record(1, 0);
+		}
+
+		if (execInfo.getElapsedTime() >= this.slowThreshold.toMillis()) {
+			var name = scope != null ? scope.name : UNSCOPED;
+			for (var query : queryInfoList) {
+				recordSlow(new SlowStatement(Instant.now(), name, execInfo.getElapsedTime(), query.getQuery(),
+						parameterShape(query), execInfo.isBatch() ? execInfo.getBatchSize() : 1));
+			}
+		}
+	}
+
+	public Map<String, EndpointStatistics> getEndpoints() {
+		return Collections.unmodifiableMap(new TreeMap<>(this.endpoints));
+	}
+
+	/**
+	 * Slowest statements first.
+	 */
+	public List<SlowStatement> getSlowStatements() {
+		var statements = new ArrayList<>(this.slowStatements);
+		statements.sort(Comparator.comparingLong(SlowStatement::getElapsedMillis).reversed());
+		return statements;
+	}
+
+	public int getBudget() {
+		return this.budget;
+	}
+
+	public Duration getSlowThreshold() {
+		return this.slowThreshold;
+	}
+
+	public void reset() {
+		this.endpoints.clear();
+		this.slowStatements.clear();
+		this.slowStatementCount.set(0);
+	}
+
+	private EndpointStatistics endpoint(String name) {
+		return this.endpoints.computeIfAbsent(name, key -> new EndpointStatistics());
+	}
+
+	private void recordSlow(SlowStatement statement) {
+		this.slowStatements.addLast(statement);
+		if (this.slowStatementCount.incrementAndGet() > this.slowStatementLimit
+				&& this.slowStatements.pollFirst() != null) {
+			this.slowStatementCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Types of the bound parameters per row, e.g. <code>[(Long, String)]</code>.
+	 */
+	private static String parameterShape(QueryInfo query) {
+		return query.getParametersList().stream()
+				.map(parameters -> parameters.stream()
+						.map(QueryStatistics::parameterType)
+						.collect(Collectors.joining(", ", "(", ")")))
+				.distinct()
+				.collect(Collectors.joining(", ", "[", "]"));
+	}
+
+	private static String parameterType(ParameterSetOperation operation) {
+		var name = operation.getMethod().getName();
+		return name.startsWith("set") ? name.substring(3) : name;
+	}
+
+	/**
+	 * Statements of one unit of work on one thread. Scopes nest, closing a scope restores the
+	 * enclosing one.
+	 */
+	public final class Scope implements AutoCloseable {
+
+		private final Scope parent;
+		private String name;
+		private int statements;
+		private long elapsedMillis;
+
+		private Scope(String name, Scope parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		public int getStatements() {
+			return this.statements;
+		}
+
+		/**
+		 * Aggregates are kept by this name, set once the endpoint is known.
+		 */
+		public void rename(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void close() {
+			if (QueryStatistics.this.current.get() != this) {
+				return;
+			}
+			if (this.parent != null) {
+				QueryStatistics.this.current.set(this.parent);
+				this.parent.statements += this.statements;
+				this.parent.elapsedMillis += this.elapsedMillis;
+			} else {
+				QueryStatistics.this.current.remove();
+			}
+
+			boolean overBudget = this.statements > QueryStatistics.this.budget;
+			endpoint(this.name).record(this.statements, overBudget ? 1 : 0);
+			if (overBudget) {
+				LOG.warn("{} issued {} statements in {} ms, budget is {}, possible N+1", this.name, this.statements,
+						this.elapsedMillis, QueryStatistics.this.budget);
+			}
+		}
+	}
+
+	public static final class EndpointStatistics {
+
+		private final LongAdder scopes = new LongAdder();
+		private final LongAdder statements = new LongAdder();
+		private final AtomicLong maxStatements = new AtomicLong();
+		private final AtomicLong lastStatements = new AtomicLong();
+		private final LongAdder overBudget = new LongAdder();
+
+		void record(int statements, int overBudget) {
+			this.scopes.increment();
+			this.statements.add(statements);
+			this.maxStatements.accumulateAndGet(statements, Math::max);
+			this.lastStatements.set(statements);
+			this.overBudget.add(overBudget);
+		}
+
+		public long getRequests() {
+			return this.scopes.sum();
+		}
+
+		public long getStatements() {
+			return this.statements.sum();
+		}
+
+		public long getMaxStatements() {
+			return this.maxStatements.get();
+		}
+
+		public long getLastStatements() {
+			return this.lastStatements.get();
+		}
+
+		public long getOverBudget() {
+			return this.overBudget.sum();
+		}
+	}
+
+	public static final class SlowStatement {
+
+		private final Instant timestamp;
+		private final String scope;
+		private final long elapsedMillis;
+		private final String sql;
+		private final String parameters;
+		private final int batchSize;
+
+		SlowStatement(Instant timestamp, String scope, long elapsedMillis, String sql, String parameters, int batchSize) {
+			this.timestamp = timestamp;
+			this.scope = scope;
+			this.elapsedMillis = elapsedMillis;
+			this.sql = sql;
+			this.parameters = parameters;
+			this.batchSize = batchSize;
+		}
+
+		public Instant getTimestamp() {
+			return this.timestamp;
+		}
+
+		public String getScope() {
+			return this.scope;
+		}
+
+		public long getElapsedMillis() {
+			return this.elapsedMillis;
+		}
+
+		public String getSql() {
+			return this.sql;
+		}
+
+		public String getParameters() {
+			return this.parameters;
+		}
+
+		public int getBatchSize() {
+			return this.batchSize;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.stlo.api.monitoring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.util.Assert;
+
+/**
+ * <code>/actuator/querystats</code>, statements per endpoint and the slowest recent statements.
+ * <code>DELETE</code> resets the statistics.
+ */
+@Endpoint(id = "querystats")
+public class QueryStatisticsEndpoint {
+
+	private final QueryStatistics queryStatistics;
+
+	public QueryStatisticsEndpoint(final QueryStatistics queryStatistics) {
+		Assert.notNull(queryStatistics, QueryStatistics.class + " must not be null");
+
+		this.queryStatistics = queryStatistics;
+	}
+
+	@ReadOperation
+	public Map<String, Object> statistics() {
+		var statistics = new LinkedHashMap<String, Object>();
+		statistics.put("budget", this.queryStatistics.getBudget());
+		statistics.put("slowThresholdMillis", this.queryStatistics.getSlowThreshold().toMillis());
+		statistics.put("endpoints", this.queryStatistics.getEndpoints());
+		statistics.put("slowStatements", this.queryStatistics.getSlowStatements());
+		return statistics;
+	}
+
+	@DeleteOperation
+	public void reset() {
+		this.queryStatistics.reset();
+	}
+}
@@ -0,0 +1,47 @@
+package com.stlo.api.monitoring;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.Assert;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Opens a {@link QueryStatistics.Scope} per request, named by HTTP method and the matched
+ * endpoint pattern. Requests no handler matched share one scope, so unknown paths add no
+ * endpoints. For asynchronous requests only the statements before the request thread is released
+ * are counted.
+ */
+public class QueryStatisticsFilter extends OncePerRequestFilter {
+
+	static final String UNMATCHED = "UNMATCHED";
+
+	private final QueryStatistics queryStatistics;
+
+	public QueryStatisticsFilter(final QueryStatistics queryStatistics) {
+		Assert.notNull(queryStatistics, QueryStatistics.class + " must not be null");
+
+		this.queryStatistics = queryStatistics;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		try (var scope = this.queryStatistics.openScope(UNMATCHED)) {
+			try {
+				filterChain.doFilter(request, response);
+			} finally {
+				var pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+				if (pattern != null) {
+					scope.rename(request.getMethod() + " " + pattern);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.stlo.api.monitoring;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.util.Assert;
+
+import com.stlo.api.service.ReplicaMonitor;
+
+/**
+ * <code>/actuator/replicas</code>, lag, availability and statement count of the primary and
+ * every read replica.
+ */
+@Endpoint(id = "replicas")
+public class ReplicasEndpoint {
+
+	private final ReplicaMonitor replicaMonitor;
+
+	public ReplicasEndpoint(final ReplicaMonitor replicaMonitor) {
+		Assert.notNull(replicaMonitor, ReplicaMonitor.class + " must not be null");
+
+		this.replicaMonitor = replicaMonitor;
+	}
+
+	@ReadOperation
+	public Map<String, Object> replicas() {
+		return Map.of("datasources", this.replicaMonitor.getStatus());
+	}
+}
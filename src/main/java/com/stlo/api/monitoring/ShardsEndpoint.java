@@ -0,0 +1,62 @@
+package com.stlo.api.monitoring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.util.Assert;
+
+import com.stlo.api.repository.UsersRepository;
+import com.stlo.api.service.ShardRebalancer;
+import com.stlo.api.service.ShardRouter;
+
+/**
+ * <code>/actuator/shards</code>, buckets and users per shard. <code>POST</code> moves buckets
+ * until the shards hold the same share of buckets.
+ */
+@Endpoint(id = "shards")
+public class ShardsEndpoint {
+
+	private final ShardRouter shardRouter;
+	private final ShardRebalancer shardRebalancer;
+	private final UsersRepository usersRepository;
+
+	public ShardsEndpoint(final ShardRouter shardRouter, final ShardRebalancer shardRebalancer,
+			final UsersRepository usersRepository) {
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+		Assert.notNull(shardRebalancer, ShardRebalancer.class + " must not be null");
+		Assert.notNull(usersRepository, UsersRepository.class + " must not be null");
+
+		this.shardRouter = shardRouter;
+		this.shardRebalancer = shardRebalancer;
+		this.usersRepository = usersRepository;
+	}
+
+	@ReadOperation
+	public Map<String, Object> shards() {
+		var buckets = this.shardRouter.getBucketCounts();
+		var users = this.shardRouter.fanOut(shard -> this.usersRepository.count());
+
+		var shards = new ArrayList<Map<String, Object>>();
+		for (int shard = 0; shard < buckets.length; shard++) {
+			var status = new LinkedHashMap<String, Object>();
+			status.put("shard", shard);
+			status.put("buckets", buckets[shard]);
+			status.put("users", users.get(shard));
+			shards.add(status);
+		}
+		return Map.of("shards", shards);
+	}
+
+	@WriteOperation
+	public Map<String, Object> rebalance() {
+		var moved = this.shardRebalancer.rebalance();
+
+		var result = new LinkedHashMap<String, Object>(shards());
+		result.put("movedUsers", moved);
+		return result;
+	}
+}
@@ -0,0 +1,21 @@
+package com.stlo.api.repository;
+
+import java.io.Serializable;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+/**
+ * Pooled sequence ids. While a bucket is bound by {@link ShardContext} the sequence value is
+ * shifted left and the bucket is put in the low bits, so the shard of a user follows from its
+ * id. Every shard's sequence starts in a range of its own, ids stay unique across shards.
+ */
+public class BucketedIdGenerator extends SequenceStyleGenerator {
+
+	@Override
+	public Serializable generate(SharedSessionContractImplementor session, Object object) {
+		long id = (Long) super.generate(session, object);
+		int bucket = ShardContext.bucket();
+		return bucket == ShardContext.UNBOUND ? id : (id << ShardContext.BUCKET_BITS) | bucket;
+	}
+}
@@ -0,0 +1,35 @@
+package com.stlo.api.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.stlo.api.model.db.CredentialOutboxEntry;
+
+public interface CredentialOutboxRepository extends JpaRepository<CredentialOutboxEntry, Long> {
+
+	/**
+	 * Pending user ids in id order, which is about the order they were created in.
+	 */
+	@Query("select o.userId from CredentialOutboxEntry o order by o.userId")
+	List<Long> findUserIds(Pageable pageable);
+
+	/**
+	 * Locks the entries that still exist, a user removed meanwhile has lost its entry.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select o from CredentialOutboxEntry o where o.userId in :userIds")
+	List<CredentialOutboxEntry> lockByUserIdIn(@Param("userIds") Collection<Long> userIds);
+
+	@Modifying
+	@Query("delete from CredentialOutboxEntry o where o.userId in :userIds")
+	int deleteByUserIdIn(@Param("userIds") Collection<Long> userIds);
+}
@@ -1,11 +1,45 @@
 package com.stlo.api.repository;
 
+import java.util.Collection;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.stlo.api.model.UserLogin;
 import com.stlo.api.model.db.UserCredential;
 
 public interface CredentialsRepository extends JpaRepository<UserCredential, Long> {
-	Optional<UserCredential> findByUserId(Long userId);
+
+	/**
+	 * Read-only, so it is served by a read replica if there are any.
+	 */
+	@Transactional(readOnly = true)
+	@Query("select new com.stlo.api.model.UserLogin(u.id, u.name, c.password) "
+			+ "from User u, UserCredential c where c.userId = u.id and u.id = :userId")
+	Optional<UserLogin> findLoginByUserId(@Param("userId") Long userId);
+
+	/**
+	 * Replaces the hash only if it is still the expected one, a concurrent password change wins.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update UserCredential c set c.password = :password where c.userId = :userId and c.password = :previous")
+	int updatePassword(@Param("userId") Long userId, @Param("previous") String previous, @Param("password") String password);
+
+	@Modifying
+	@Query("delete from UserCredential c where c.userId in :userIds")
+	int deleteByUserIdIn(@Param("userIds") Collection<Long> userIds);
+
+	/**
+	 * Deletes up to <code>limit</code> credentials whose user no longer exists.
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "DELETE FROM credentials WHERE user_id IN (SELECT c.user_id FROM credentials c "
+			+ "LEFT JOIN users u ON u.id = c.user_id WHERE u.id IS NULL LIMIT :limit)", nativeQuery = true)
+	int deleteOrphans(@Param("limit") int limit);
 }
@@ -0,0 +1,69 @@
+package com.stlo.api.repository;
+
+import java.util.function.Supplier;
+
+/**
+ * Whether read-only transactions of the current thread must use the primary, for reads that
+ * must see the latest writes. Without read replicas every transaction uses the primary anyway.
+ * Also remembers whether the last connection of the thread was one of a replica, so a read that
+ * may lag behind the primary is not cached.
+ */
+public final class ReplicaContext {
+
+	private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+	private static final ThreadLocal<Boolean> SERVED_BY_REPLICA = new ThreadLocal<>();
+
+	private ReplicaContext() {
+		// static helpers only
+	}
+
+	public static boolean isPrimaryRequired() {
+		return PRIMARY.get() != null;
+	}
+
+	/**
+	 * Whether the last connection taken by the current thread was one of a replica.
+	 */
+	public static boolean isServedByReplica() {
+		return SERVED_BY_REPLICA.get() != null;
+	}
+
+	/**
+	 * Records the data source of the connection the current thread takes.
+	 */
+	public static void setServedByReplica(boolean replica) {
+		if (replica) {
+			SERVED_BY_REPLICA.set(Boolean.TRUE);
+		} else {
+			SERVED_BY_REPLICA.remove();
+		}
+	}
+
+	/**
+	 * Runs the operation with the primary required.
+	 */
+	public static <T> T onPrimary(Supplier<T> operation) {
+		try (var scope = requirePrimary()) {
+			return operation.get();
+		}
+	}
+
+	/**
+	 * Requires the primary until the scope is closed, the previous binding is restored then.
+	 */
+	public static Scope requirePrimary() {
+		var previous = PRIMARY.get();
+		PRIMARY.set(Boolean.TRUE);
+		return () -> {
+			if (previous == null) {
+				PRIMARY.remove();
+			}
+		};
+	}
+
+	public interface Scope extends AutoCloseable {
+
+		@Override
+		void close();
+	}
+}
@@ -0,0 +1,19 @@
+package com.stlo.api.repository;
+
+import java.util.Collection;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.stlo.api.model.db.ShardBucket;
+
+public interface ShardBucketsRepository extends JpaRepository<ShardBucket, Integer> {
+
+	@Transactional
+	@Modifying
+	@Query("update ShardBucket b set b.shard = :shard where b.bucket in :buckets")
+	int assign(@Param("buckets") Collection<Integer> buckets, @Param("shard") int shard);
+}
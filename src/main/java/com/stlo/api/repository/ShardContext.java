@@ -0,0 +1,62 @@
+package com.stlo.api.repository;
+
+import java.util.function.Supplier;
+
+/**
+ * Shard and bucket bound to the current thread. Connections are taken from the shard bound when
+ * a transaction or a repository call starts, ids of new users carry the bound bucket. Nothing is
+ * bound with a single database.
+ */
+public final class ShardContext {
+
+	/** Users are spread over 2^10 buckets by the low bits of their id. */
+	public static final int BUCKET_BITS = 10;
+	public static final int BUCKETS = 1 << BUCKET_BITS;
+
+	public static final int UNBOUND = -1;
+
+	private static final ThreadLocal<Integer> SHARD = new ThreadLocal<>();
+	private static final ThreadLocal<Integer> BUCKET = new ThreadLocal<>();
+
+	private ShardContext() {
+		// static helpers only
+	}
+
+	public static int bucketOf(long userId) {
+		return (int) (userId & (BUCKETS - 1));
+	}
+
+	public static int shard() {
+		var shard = SHARD.get();
+		return shard == null ? UNBOUND : shard;
+	}
+
+	public static int bucket() {
+		var bucket = BUCKET.get();
+		return bucket == null ? UNBOUND : bucket;
+	}
+
+	/**
+	 * Runs the operation with the shard and bucket bound, the previous binding is restored after.
+	 */
+	public static <T> T call(int shard, int bucket, Supplier<T> operation) {
+		var previousShard = SHARD.get();
+		var previousBucket = BUCKET.get();
+		set(SHARD, shard);
+		set(BUCKET, bucket);
+		try {
+			return operation.get();
+		} finally {
+			set(SHARD, previousShard);
+			set(BUCKET, previousBucket);
+		}
+	}
+
+	private static void set(ThreadLocal<Integer> binding, Integer value) {
+		if (value == null || value == UNBOUND) {
+			binding.remove();
+		} else {
+			binding.set(value);
+		}
+	}
+}
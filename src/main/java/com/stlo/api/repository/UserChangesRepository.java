@@ -0,0 +1,80 @@
+package com.stlo.api.repository;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.stlo.api.model.UserChangeDto;
+import com.stlo.api.model.db.UserChange;
+
+public interface UserChangesRepository extends JpaRepository<UserChange, Long> {
+
+	@Query("select new com.stlo.api.model.UserChangeDto(c.seq, c.type, c.userId, c.name) "
+			+ "from UserChange c where c.seq > :since order by c.seq")
+	List<UserChangeDto> findDtoBySeqGreaterThan(@Param("since") long since, Pageable pageable);
+
+	/**
+	 * Takes the next <code>count</code> seqs. The head row stays locked until the transaction ends.
+	 */
+	@Modifying
+	@Query(value = "UPDATE user_changes_head SET seq = seq + :count WHERE id = 1", nativeQuery = true)
+	int advanceHeadSeq(@Param("count") int count);
+
+	@Query(value = "SELECT seq FROM user_changes_head WHERE id = 1", nativeQuery = true)
+	long findHeadSeq();
+
+	@Query(value = "SELECT truncated_seq FROM user_changes_head WHERE id = 1", nativeQuery = true)
+	long findTruncatedSeq();
+
+	/**
+	 * The last seq of the next <code>limit</code> entries after <code>after</code>,
+	 * <code>null</code> if there are none.
+	 */
+	@Query(value = "SELECT MAX(seq) FROM (SELECT seq FROM user_changes WHERE seq > :after ORDER BY seq LIMIT :limit)",
+			nativeQuery = true)
+	Long findSeqWindowEnd(@Param("after") long after, @Param("limit") int limit);
+
+	/**
+	 * Deletes the created entries of users with a removed entry in the seq window. A user id is
+	 * never reused, the removal is always the later entry.
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "DELETE FROM user_changes WHERE type = 'CREATED' AND user_id IN (SELECT r.user_id FROM user_changes r "
+			+ "WHERE r.type = 'REMOVED' AND r.seq > :after AND r.seq <= :upTo)", nativeQuery = true)
+	int deleteSuperseded(@Param("after") long after, @Param("upTo") long upTo);
+
+	/**
+	 * The last seq among the oldest <code>limit</code> entries that was created before
+	 * <code>before</code>, <code>null</code> if none was. Entries are created in seq order.
+	 */
+	@Query(value = "SELECT MAX(seq) FROM (SELECT seq, created_at FROM user_changes ORDER BY seq LIMIT :limit) "
+			+ "WHERE created_at < :before", nativeQuery = true)
+	Long findExpiredSeq(@Param("before") Instant before, @Param("limit") int limit);
+
+	@Transactional
+	@Modifying
+	@Query(value = "UPDATE user_changes_head SET truncated_seq = :seq WHERE id = 1 AND truncated_seq < :seq",
+			nativeQuery = true)
+	int truncateTo(@Param("seq") long seq);
+
+	/**
+	 * Turns away consumers behind the head, the entries stay until the retention removes them.
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "UPDATE user_changes_head SET truncated_seq = seq WHERE id = 1 AND truncated_seq < seq",
+			nativeQuery = true)
+	int truncateToHead();
+
+	@Transactional
+	@Modifying
+	@Query(value = "DELETE FROM user_changes WHERE seq <= :seq", nativeQuery = true)
+	int deleteUpTo(@Param("seq") long seq);
+}
@@ -1,8 +1,81 @@
 package com.stlo.api.repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.stlo.api.config.CacheConfig;
+import com.stlo.api.model.UserDto;
 import com.stlo.api.model.db.User;
 
 public interface UsersRepository extends JpaRepository<User, Long> {
+
+	/**
+	 * Offset page of projections, no entity is hydrated or attached to the persistence context.
+	 * Content and count are read in one read-only transaction, served by a read replica if there
+	 * are any.
+	 */
+	@Transactional(readOnly = true)
+	@Query(value = "select new com.stlo.api.model.UserDto(u.id, u.name, u.version) from User u",
+			countQuery = "select count(u) from User u")
+	Page<UserDto> findDtoPage(Pageable pageable);
+
+	/**
+	 * Keyset query of projections, returns a {@link Slice} so no count query is issued.
+	 */
+	@Transactional(readOnly = true)
+	@Query("select new com.stlo.api.model.UserDto(u.id, u.name, u.version) from User u where u.id > :id order by u.id")
+	Slice<UserDto> findDtoByIdGreaterThan(@Param("id") Long id, Pageable pageable);
+
+	/**
+	 * Read-through cached lookup. Caches the detached projection, never a managed entity. Misses
+	 * are read in a read-only transaction, cache hits start none. A miss served by a read replica
+	 * is not cached, it may lag behind a write that already evicted the entry.
+	 */
+	@Transactional(readOnly = true)
+	@Cacheable(cacheNames = CacheConfig.USERS, key = "#p0",
+			unless = "(#result == null and !@cacheConfig.negativeCaching) or T(com.stlo.api.repository.ReplicaContext).isServedByReplica()")
+	@Query("select new com.stlo.api.model.UserDto(u.id, u.name, u.version) from User u where u.id = :id")
+	Optional<UserDto> findDtoById(@Param("id") Long id);
+
+	/**
+	 * Forward-only stream over all users in id order, must be consumed inside a transaction.
+	 * Rows are fetched from JDBC in chunks and mapped to projections, so nothing piles up in
+	 * the persistence context.
+	 */
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+	@Query("select new com.stlo.api.model.UserDto(u.id, u.name) from User u order by u.id")
+	Stream<UserDto> streamAll();
+
+	/**
+	 * The ids of the users that exist, their rows stay locked until the transaction ends so a
+	 * concurrent removal waits and then finds none of them.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select u.id from User u where u.id in :ids")
+	List<Long> findIdByIdIn(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * One statement, nothing is loaded and unknown ids are ignored. Credentials are not removed,
+	 * see {@link CredentialsRepository#deleteByUserIdIn(Collection)}.
+	 */
+	@Modifying
+	@Query("delete from User u where u.id in :ids")
+	int deleteByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,45 @@
+package com.stlo.api.service;
+
+import java.time.Duration;
+
+/**
+ * Rate and failure counters by key. Every operation on a key is atomic, an implementation
+ * shared by several instances must keep that guarantee.
+ */
+public interface CounterStore {
+
+	/**
+	 * Takes one token from the bucket of the key. A bucket holds up to <code>capacity</code>
+	 * tokens, starts full and gets one token back every <code>refillInterval</code>.
+	 *
+	 * @return <code>0</code> if a token was taken, otherwise the milliseconds until the next token
+	 */
+	long tryConsume(String key, int capacity, Duration refillInterval);
+
+	/**
+	 * Counts a failure, the count is dropped <code>window</code> after the last failure.
+	 *
+	 * @return the count including this failure
+	 */
+	int recordFailure(String key, Duration window);
+
+	/**
+	 * Blocks the key for the duration, an existing longer block is kept.
+	 */
+	void block(String key, Duration duration);
+
+	/**
+	 * @return the milliseconds the key is still blocked, <code>0</code> if it is not blocked
+	 */
+	long blockedFor(String key);
+
+	/**
+	 * Drops failures and block of the key, the bucket is kept.
+	 */
+	void reset(String key);
+
+	/**
+	 * @return the number of keys held, expired keys may be included
+	 */
+	long size();
+}
@@ -0,0 +1,75 @@
+package com.stlo.api.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import com.stlo.api.repository.CredentialsRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Removes credentials left behind by users deleted before credentials were removed along with
+ * them. Runs in small transactions, so logins and creates are not blocked for long.
+ */
+@Service
+@ConditionalOnProperty(name = "users.credentials.compaction.enabled", havingValue = "true", matchIfMissing = true)
+public class CredentialCompactionJob {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CredentialCompactionJob.class);
+
+	private final CredentialsRepository credentialsRepository;
+	private final ShardRouter shardRouter;
+	private final Counter compactedCounter;
+	private final int batchSize;
+
+	public CredentialCompactionJob(
+			final CredentialsRepository credentialsRepository,
+			final MeterRegistry meterRegistry,
+			final ShardRouter shardRouter,
+			@Value("${users.credentials.compaction.batch-size:10000}") final int batchSize) {
+
+		Assert.notNull(credentialsRepository, CredentialsRepository.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+		Assert.isTrue(batchSize > 0, "compaction batch size must be positive");
+
+		this.credentialsRepository = credentialsRepository;
+		this.shardRouter = shardRouter;
+		this.batchSize = batchSize;
+		this.compactedCounter = Counter.builder("users.credentials.compacted")
+				.description("Orphaned credentials removed by the compaction job")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Compacts one shard after another.
+	 *
+	 * @return the number of removed credentials
+	 */
+	@Scheduled(initialDelayString = "${users.credentials.compaction.initial-delay:PT1M}",
+			fixedDelayString = "${users.credentials.compaction.interval:PT1H}")
+	public int compact() {
+		var total = new AtomicInteger();
+		this.shardRouter.forEachShard(shard -> {
+			int removed;
+			do {
+				removed = this.credentialsRepository.deleteOrphans(this.batchSize);
+				total.addAndGet(removed);
+			} while (removed == this.batchSize);
+		});
+
+		if (total.get() > 0) {
+			this.compactedCounter.increment(total.get());
+			LOG.info("Removed {} orphaned credentials", total.get());
+		}
+		return total.get();
+	}
+}
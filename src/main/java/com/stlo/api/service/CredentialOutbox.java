@@ -0,0 +1,209 @@
+package com.stlo.api.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import com.stlo.api.model.db.CredentialOutboxEntry;
+import com.stlo.api.model.db.UserCredential;
+import com.stlo.api.repository.CredentialOutboxRepository;
+import com.stlo.api.repository.CredentialsRepository;
+import com.stlo.api.repository.ReplicaContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Write-behind of the credentials of new users, enabled with
+ * <code>users.credentials.write-mode=outbox</code>. A user is committed with an outbox entry
+ * instead of a credential, a background writer hashes the default password and replaces entries
+ * by credentials in batches. Entries are rows in the database, entries left by a crash are
+ * written by the next run. In <code>sync</code> mode the writer runs once after the start, so
+ * switching back leaves no credential behind, and polls no further.
+ */
+@Service
+public class CredentialOutbox {
+
+	static final String SYNC = "sync";
+	static final String OUTBOX = "outbox";
+
+	private static final Logger LOG = LoggerFactory.getLogger(CredentialOutbox.class);
+
+	private final CredentialOutboxRepository outboxRepository;
+	private final CredentialsRepository credentialsRepository;
+	private final DefaultCredentialService defaultCredentialService;
+	private final TransactionTemplate readTemplate;
+	private final TransactionTemplate writeTemplate;
+	private final ShardRouter shardRouter;
+	private final ExecutorService writer;
+	private final Clock clock;
+	private final boolean enabled;
+	private final int batchSize;
+	private final Counter writtenCounter;
+	private final Timer lagTimer;
+
+	// set once a drain in sync mode wrote the entries left from outbox mode
+	private volatile boolean recovered;
+
+	public CredentialOutbox(
+			final CredentialOutboxRepository outboxRepository,
+			final CredentialsRepository credentialsRepository,
+			final DefaultCredentialService defaultCredentialService,
+			final PlatformTransactionManager transactionManager,
+			final MeterRegistry meterRegistry,
+			final ShardRouter shardRouter,
+			@Qualifier("credentialOutboxWriter") final ExecutorService writer,
+			@Value("${users.credentials.write-mode:" + SYNC + "}") final String writeMode,
+			@Value("${users.credentials.outbox.batch-size:100}") final int batchSize) {
+
+		Assert.notNull(outboxRepository, CredentialOutboxRepository.class + " must not be null");
+		Assert.notNull(credentialsRepository, CredentialsRepository.class + " must not be null");
+		Assert.notNull(defaultCredentialService, DefaultCredentialService.class + " must not be null");
+		Assert.notNull(transactionManager, PlatformTransactionManager.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+		Assert.notNull(writer, ExecutorService.class + " must not be null");
+		Assert.isTrue(SYNC.equals(writeMode) || OUTBOX.equals(writeMode), "Unsupported credential write mode: " + writeMode);
+		Assert.isTrue(batchSize > 0, "outbox batch size must be positive");
+
+		this.outboxRepository = outboxRepository;
+		this.credentialsRepository = credentialsRepository;
+		this.defaultCredentialService = defaultCredentialService;
+		this.readTemplate = new TransactionTemplate(transactionManager);
+		this.readTemplate.setReadOnly(true);
+		this.writeTemplate = new TransactionTemplate(transactionManager);
+		this.writeTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.shardRouter = shardRouter;
+		this.writer = writer;
+		this.clock = Clock.systemUTC();
+		this.enabled = OUTBOX.equals(writeMode);
+		this.batchSize = batchSize;
+		this.writtenCounter = Counter.builder("users.credentials.outbox.written")
+				.description("Credentials written from the outbox")
+				.register(meterRegistry);
+		this.lagTimer = Timer.builder("users.credentials.outbox.lag")
+				.description("Time from creating a user until its credential is written")
+				.register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Adds entries for the users in the transaction that creates them.
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void add(Collection<Long> userIds) {
+		var now = this.clock.instant();
+		this.outboxRepository.saveAll(userIds.stream()
+				.map(userId -> new CredentialOutboxEntry(userId, now))
+				.collect(Collectors.toList()));
+	}
+
+	public boolean isPending(long userId) {
+		return this.outboxRepository.existsById(userId);
+	}
+
+	/**
+	 * Hands a drain to the writer thread, the scheduler thread does not hash. In sync mode nothing
+	 * is handed over after the first drain succeeded.
+	 */
+	@Scheduled(initialDelayString = "${users.credentials.outbox.initial-delay:PT5S}",
+			fixedDelayString = "${users.credentials.outbox.interval:PT1S}")
+	public void trigger() {
+		if (this.enabled || !this.recovered) {
+			this.writer.execute(this::drainLogged);
+		}
+	}
+
+	private void drainLogged() {
+		try {
+			drain();
+			this.recovered = !this.enabled;
+		} catch (RuntimeException e) {
+			LOG.warn("Credentials not written from the outbox, retried with the next run: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes all pending credentials, one transaction per batch and one shard after another.
+	 * Passwords are hashed before a batch transaction starts, on the calling thread only, so the
+	 * writer uses at most one core.
+	 *
+	 * @return the number of written credentials
+	 */
+	public synchronized int drain() {
+		var total = new AtomicInteger();
+		// entries already written must not be read again from a lagging replica
+		this.shardRouter.forEachShard(shard -> total.addAndGet(ReplicaContext.onPrimary(this::drainShard)));
+
+		if (total.get() > 0) {
+			LOG.debug("Wrote {} credentials from the outbox", total.get());
+		}
+		return total.get();
+	}
+
+	private int drainShard() {
+		int total = 0;
+		List<Long> userIds;
+		do {
+			userIds = this.readTemplate.execute(status -> this.outboxRepository.findUserIds(PageRequest.ofSize(this.batchSize)));
+			if (userIds.isEmpty()) {
+				break;
+			}
+			var passwords = new HashMap<Long, String>(userIds.size() * 2);
+			for (var userId : userIds) {
+				passwords.put(userId, this.defaultCredentialService.hash());
+			}
+			total += write(userIds, passwords);
+		} while (userIds.size() == this.batchSize);
+		return total;
+	}
+
+	private int write(List<Long> userIds, Map<Long, String> passwords) {
+		var pending = this.writeTemplate.execute(status -> {
+			var entries = this.outboxRepository.lockByUserIdIn(userIds);
+			if (entries.isEmpty()) {
+				return entries;
+			}
+			var credentials = new ArrayList<UserCredential>(entries.size());
+			var ids = new ArrayList<Long>(entries.size());
+			for (var entry : entries) {
+				credentials.add(new UserCredential(entry.getUserId(), passwords.get(entry.getUserId())));
+				ids.add(entry.getUserId());
+			}
+			this.credentialsRepository.saveAll(credentials);
+			this.outboxRepository.deleteByUserIdIn(ids);
+			return entries;
+		});
+		var now = this.clock.instant();
+		for (var entry : pending) {
+			this.lagTimer.record(Duration.between(entry.getCreatedAt(), now));
+		}
+		this.writtenCounter.increment(pending.size());
+		return pending.size();
+	}
+}
@@ -0,0 +1,64 @@
+package com.stlo.api.service;
+
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import com.stlo.api.config.SecurityConfig;
+
+/**
+ * Provides the stored password of a new user. Callers should request it before opening a
+ * transaction, hashing must not happen while a connection is held.
+ */
+@Service
+public class DefaultCredentialService {
+
+	public enum Mode {
+		/** BCrypt hash with a fresh salt for every user. */
+		PER_USER,
+		/** No hash at all, a marker is stored and replaced on the first successful login. */
+		LAZY
+	}
+
+	private final PasswordEncoder passwordEncoder;
+	private final SecurityConfig securityConfig;
+	private final Mode mode;
+
+	public DefaultCredentialService(
+			final PasswordEncoder passwordEncoder,
+			final SecurityConfig securityConfig,
+			@Value("${security.credentials.default-mode:per-user}") final String mode) {
+
+		Assert.notNull(passwordEncoder, PasswordEncoder.class + " must not be null");
+		Assert.notNull(securityConfig, SecurityConfig.class + " must not be null");
+		Assert.hasText(mode, "default credential mode must not be empty");
+
+		this.passwordEncoder = passwordEncoder;
+		this.securityConfig = securityConfig;
+		this.mode = mode(mode);
+	}
+
+	private static Mode mode(String mode) {
+		try {
+			return Mode.valueOf(mode.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("Unsupported default credential mode: " + mode, e);
+		}
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	public String hash() {
+		switch (this.mode) {
+		case LAZY:
+			return SecurityConfig.DEFAULT_PASSWORD_MARKER;
+		default:
+			return this.passwordEncoder.encode(this.securityConfig.getDefaultPassword());
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.stlo.api.service;
+
+import java.time.Clock;
+import java.time.Duration;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import com.stlo.api.exception.TooManyRequestsException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Limits login attempts per user id and per client address with token buckets, and locks a user
+ * id out after repeated failures. The lockout doubles with every further failure up to a
+ * maximum. All checks run before the password is hashed. Rejections are counted as
+ * <code>users.login.throttled</code> tagged with the <code>reason</code>.
+ * <p>
+ * The counters are kept by the {@link CounterStore} bean, a shared store lets several instances
+ * throttle together. Without one they are held in memory, local to this instance.
+ */
+@Service
+public class LoginThrottle {
+
+	static final String USER = "user";
+	static final String CLIENT = "client";
+	static final String LOCKED = "locked";
+
+	private static final int COUNTER_STRIPES = 64;
+
+	private final CounterStore counterStore;
+	private final boolean enabled;
+	private final int userCapacity;
+	private final Duration userRefill;
+	private final int clientCapacity;
+	private final Duration clientRefill;
+	private final int lockoutThreshold;
+	private final Duration lockoutBase;
+	private final Duration lockoutMax;
+	private final Duration failureWindow;
+
+	private final Counter userThrottled;
+	private final Counter clientThrottled;
+	private final Counter lockedThrottled;
+	private final Counter lockouts;
+
+	public LoginThrottle(
+			final ObjectProvider<CounterStore> counterStore,
+			final MeterRegistry meterRegistry,
+			@Value("${security.login.throttle.enabled:true}") final boolean enabled,
+			@Value("${security.login.throttle.user.capacity:5}") final int userCapacity,
+			@Value("${security.login.throttle.user.refill:PT10S}") final Duration userRefill,
+			@Value("${security.login.throttle.client.capacity:50}") final int clientCapacity,
+			@Value("${security.login.throttle.client.refill:PT0.1S}") final Duration clientRefill,
+			@Value("${security.login.lockout.threshold:5}") final int lockoutThreshold,
+			@Value("${security.login.lockout.duration:PT30S}") final Duration lockoutBase,
+			@Value("${security.login.lockout.max-duration:PT15M}") final Duration lockoutMax,
+			@Value("${security.login.lockout.failure-window:PT15M}") final Duration failureWindow) {
+
+		Assert.notNull(counterStore, CounterStore.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.isTrue(userCapacity > 0 && clientCapacity > 0, "throttle capacity must be positive");
+		Assert.isTrue(!userRefill.isNegative() && !userRefill.isZero(), "user refill interval must be positive");
+		Assert.isTrue(!clientRefill.isNegative() && !clientRefill.isZero(), "client refill interval must be positive");
+		Assert.isTrue(lockoutThreshold > 0, "lockout threshold must be positive");
+		Assert.isTrue(lockoutMax.compareTo(lockoutBase) >= 0, "maximum lockout must not be shorter than the lockout");
+
+		this.counterStore = counterStore.getIfAvailable(() -> new StripedCounterStore(Clock.systemUTC(), COUNTER_STRIPES));
+		this.enabled = enabled;
+		this.userCapacity = userCapacity;
+		this.userRefill = userRefill;
+		this.clientCapacity = clientCapacity;
+		this.clientRefill = clientRefill;
+		this.lockoutThreshold = lockoutThreshold;
+		this.lockoutBase = lockoutBase;
+		this.lockoutMax = lockoutMax;
+		this.failureWindow = failureWindow;
+
+		this.userThrottled = throttledCounter(USER, meterRegistry);
+		this.clientThrottled = throttledCounter(CLIENT, meterRegistry);
+		this.lockedThrottled = throttledCounter(LOCKED, meterRegistry);
+		this.lockouts = Counter.builder("users.login.lockouts")
+				.description("User ids locked out after repeated login failures")
+				.register(meterRegistry);
+		Gauge.builder("users.login.throttle.keys", this.counterStore, CounterStore::size)
+				.description("User ids and client addresses held by the login throttle")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Lockout is checked first, so a locked user id does not drain the bucket of the client.
+	 *
+	 * @throws TooManyRequestsException if the attempt must be rejected
+	 */
+	public void acquire(long userId, String clientAddress) {
+		if (!this.enabled) {
+			return;
+		}
+		var userKey = userKey(userId);
+		reject(this.counterStore.blockedFor(userKey), this.lockedThrottled);
+		if (clientAddress != null) {
+			reject(this.counterStore.tryConsume(CLIENT + ':' + clientAddress, this.clientCapacity, this.clientRefill),
+					this.clientThrottled);
+		}
+		reject(this.counterStore.tryConsume(userKey, this.userCapacity, this.userRefill), this.userThrottled);
+	}
+
+	public void onSuccess(long userId) {
+		if (this.enabled) {
+			this.counterStore.reset(userKey(userId));
+		}
+	}
+
+	/**
+	 * Unknown user ids count like wrong passwords, the response does not tell them apart.
+	 */
+	public void onFailure(long userId) {
+		if (!this.enabled) {
+			return;
+		}
+		var userKey = userKey(userId);
+		int failures = this.counterStore.recordFailure(userKey, this.failureWindow);
+		if (failures >= this.lockoutThreshold) {
+			// 30 s, 60 s, 120 s ... up to the maximum
+			int doublings = Math.min(failures - this.lockoutThreshold, 30);
+			var lockout = this.lockoutBase.multipliedBy(1L << doublings);
+			this.counterStore.block(userKey, lockout.compareTo(this.lockoutMax) > 0 ? this.lockoutMax : lockout);
+			this.lockouts.increment();
+		}
+	}
+
+	private static void reject(long waitMillis, Counter counter) {
+		if (waitMillis > 0) {
+			counter.increment();
+			throw new TooManyRequestsException((waitMillis + 999) / 1000);
+		}
+	}
+
+	private static String userKey(long userId) {
+		return USER + ':' + userId;
+	}
+
+	private static Counter throttledCounter(String reason, MeterRegistry meterRegistry) {
+		return Counter.builder("users.login.throttled")
+				.description("Login attempts rejected before the password was verified")
+				.tag("reason", reason)
+				.register(meterRegistry);
+	}
+}
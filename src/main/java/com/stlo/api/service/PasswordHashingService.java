@@ -0,0 +1,114 @@
+package com.stlo.api.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import com.stlo.api.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Runs CPU-bound password hashing on a dedicated, size-capped executor, so
+ * request threads are never pinned by BCrypt. Once the queue is full new work
+ * is rejected with {@link ServiceUnavailableException}.
+ */
+@Service
+public class PasswordHashingService {
+
+	private final PasswordEncoder passwordEncoder;
+	private final ThreadPoolExecutor executor;
+	private final Timer matchesTimer;
+	private final Timer encodeTimer;
+	private final Counter rejectedCounter;
+
+	public PasswordHashingService(
+			final PasswordEncoder passwordEncoder,
+			final MeterRegistry meterRegistry,
+			@Value("${security.hashing.pool-size:0}") final int poolSize,
+			@Value("${security.hashing.queue-capacity:100}") final int queueCapacity) {
+
+		Assert.notNull(passwordEncoder, PasswordEncoder.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.isTrue(queueCapacity > 0, "queue capacity must be positive");
+
+		// pool size 0 adapts the pool to the cores of the current machine
+		int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+
+		this.passwordEncoder = passwordEncoder;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), new HashingThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+
+		this.matchesTimer = hashTimer("matches", meterRegistry);
+		this.encodeTimer = hashTimer("encode", meterRegistry);
+		this.rejectedCounter = Counter.builder("users.password.hashing.rejected")
+				.description("Hashing tasks rejected because the queue was full")
+				.register(meterRegistry);
+		Gauge.builder("users.password.hashing.queue", this.executor, e -> e.getQueue().size())
+				.description("Hashing tasks waiting for a worker")
+				.register(meterRegistry);
+		Gauge.builder("users.password.hashing.active", this.executor, ThreadPoolExecutor::getActiveCount)
+				.description("Hashing tasks currently running")
+				.register(meterRegistry);
+	}
+
+	public CompletableFuture<Boolean> matches(@NonNull CharSequence rawPassword, @NonNull String encodedPassword) {
+
+		return submit(this.matchesTimer, () -> this.passwordEncoder.matches(rawPassword, encodedPassword));
+	}
+
+	public CompletableFuture<String> encode(@NonNull CharSequence rawPassword) {
+
+		return submit(this.encodeTimer, () -> this.passwordEncoder.encode(rawPassword));
+	}
+
+	private static Timer hashTimer(String operation, MeterRegistry meterRegistry) {
+		return Timer.builder("users.password.hashing")
+				.description("Time spent in password hashing and verification")
+				.tag("operation", operation)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	private <T> CompletableFuture<T> submit(Timer timer, Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(() -> timer.record(task), this.executor);
+		} catch (RejectedExecutionException e) {
+			this.rejectedCounter.increment();
+			return CompletableFuture.failedFuture(new ServiceUnavailableException());
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.executor.shutdown();
+	}
+
+	private static final class HashingThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			var thread = new Thread(runnable, "password-hashing-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
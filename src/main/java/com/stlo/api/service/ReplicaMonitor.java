@@ -0,0 +1,207 @@
+package com.stlo.api.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import com.stlo.api.config.ReplicaDataSources;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/**
+ * Tracks the replication lag of the read replicas. Every heartbeat writes the time to
+ * <code>replication_heartbeat</code> on the primary and reads it back from every replica, the
+ * age of the replicated time is the lag. It includes up to one heartbeat interval. Replicas
+ * behind <code>max-lag</code> or not reachable get no reads until they caught up. Once the last
+ * check is older than <code>max-lag</code>, because the scheduler is busy or the check hangs,
+ * no replica gets reads until the next check.
+ * <p>
+ * Statements are counted per data source as <code>users.datasource.queries</code>, the share of
+ * the replicas is the offloaded read traffic. Bound to the registry after it is created, the
+ * registry depends on the data sources.
+ */
+public class ReplicaMonitor implements MeterBinder {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReplicaMonitor.class);
+
+	private final ReplicaDataSources dataSources;
+	// the pool of the primary may not auto-commit, see spring.datasource.hikari.auto-commit
+	private final TransactionTemplate heartbeatTemplate;
+	private final Clock clock;
+	private final Duration maxLag;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final Map<String, LongAdder> queryCounts = new ConcurrentHashMap<>();
+
+	// lag per replica, null while not known or not reachable. Replaced as a whole by a heartbeat
+	private volatile Duration[] lags;
+	private volatile int[] available = new int[0];
+	// time of the last check in epoch millis, the lags are not known beyond it
+	private volatile long checkedAt;
+
+	public ReplicaMonitor(final ReplicaDataSources dataSources, final Duration maxLag) {
+		this(dataSources, maxLag, Clock.systemUTC());
+	}
+
+	ReplicaMonitor(final ReplicaDataSources dataSources, final Duration maxLag, final Clock clock) {
+
+		Assert.notNull(dataSources, ReplicaDataSources.class + " must not be null");
+		Assert.isTrue(!maxLag.isNegative(), "replica max lag must not be negative");
+		Assert.notNull(clock, Clock.class + " must not be null");
+
+		this.dataSources = dataSources;
+		this.heartbeatTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSources.getPrimary()));
+		this.clock = clock;
+		this.maxLag = maxLag;
+		this.lags = new Duration[dataSources.getReplicaCount()];
+		this.queryCounts.put(ReplicaDataSources.PRIMARY, new LongAdder());
+		for (int replica = 0; replica < dataSources.getReplicaCount(); replica++) {
+			this.queryCounts.put(ReplicaDataSources.replicaName(replica), new LongAdder());
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry meterRegistry) {
+		this.queryCounts.forEach((name, count) -> FunctionCounter.builder("users.datasource.queries", count, LongAdder::sum)
+				.description("Statements executed per data source")
+				.tag("datasource", name)
+				.register(meterRegistry));
+		for (int replica = 0; replica < this.dataSources.getReplicaCount(); replica++) {
+			int index = replica;
+			Gauge.builder("users.replicas.lag", this, monitor -> {
+				var lag = monitor.lags[index];
+				return lag == null ? Double.NaN : lag.toMillis() / 1000.0;
+			})
+					.description("Replication lag of the read replica, NaN while it is not reachable")
+					.tag("replica", ReplicaDataSources.replicaName(replica))
+					.baseUnit("seconds")
+					.register(meterRegistry);
+		}
+	}
+
+	/**
+	 * Next replica within the lag tolerance, round robin.
+	 *
+	 * @return the index of the replica, -1 if none is or the last check is too old
+	 */
+	public int selectReplica() {
+		var replicas = this.available;
+		if (replicas.length == 0 || isStale()) {
+			return -1;
+		}
+		return replicas[Math.floorMod(this.nextReplica.getAndIncrement(), replicas.length)];
+	}
+
+	@Scheduled(initialDelayString = "${users.replicas.heartbeat.initial-delay:PT0S}",
+			fixedDelayString = "${users.replicas.heartbeat.interval:PT1S}")
+	public void heartbeat() {
+		check(this.clock.instant());
+	}
+
+	/**
+	 * Reads the lag of every replica at <code>now</code>, then writes the next heartbeat.
+	 */
+	synchronized void check(Instant now) {
+		var lags = new Duration[this.dataSources.getReplicaCount()];
+		var available = new ArrayList<Integer>();
+		for (int replica = 0; replica < lags.length; replica++) {
+			try {
+				long beat = new JdbcTemplate(this.dataSources.getReplica(replica))
+						.queryForObject("SELECT beat_at FROM replication_heartbeat WHERE id = 1", Long.class);
+				lags[replica] = Duration.ofMillis(Math.max(0, now.toEpochMilli() - beat));
+			} catch (DataAccessException e) {
+				LOG.debug("Heartbeat of {} not readable: {}", ReplicaDataSources.replicaName(replica), e.getMessage());
+			}
+			boolean usable = lags[replica] != null && lags[replica].compareTo(this.maxLag) <= 0;
+			if (usable) {
+				available.add(replica);
+			}
+			if (usable != isAvailable(replica)) {
+				LOG.info("{} {} reads, lag {}", ReplicaDataSources.replicaName(replica), usable ? "takes" : "takes no",
+						lags[replica] != null ? lags[replica] : "unknown");
+			}
+		}
+		this.lags = lags;
+		this.available = available.stream().mapToInt(Integer::intValue).toArray();
+		this.checkedAt = now.toEpochMilli();
+
+		try {
+			this.heartbeatTemplate.executeWithoutResult(status -> new JdbcTemplate(this.dataSources.getPrimary())
+					.update("UPDATE replication_heartbeat SET beat_at = ? WHERE id = 1", now.toEpochMilli()));
+		} catch (DataAccessException | TransactionException e) {
+			LOG.warn("Heartbeat not written to the primary: {}", e.getMessage());
+		}
+	}
+
+	private boolean isStale() {
+		return this.clock.millis() - this.checkedAt > this.maxLag.toMillis();
+	}
+
+	private boolean isAvailable(int replica) {
+		for (var index : this.available) {
+			if (index == replica) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Wraps the data source of the primary or a replica to count its statements.
+	 */
+	public DataSource countQueries(DataSource dataSource, String name) {
+		var count = this.queryCounts.get(name);
+		Assert.notNull(count, "unknown data source " + name);
+		return ProxyDataSourceBuilder.create(dataSource)
+				.name(name)
+				.afterQuery((execution, queries) -> count.increment())
+				.build();
+	}
+
+	/**
+	 * Lag, availability and statement count of the primary and every replica.
+	 */
+	public List<Map<String, Object>> getStatus() {
+		var status = new ArrayList<Map<String, Object>>();
+		status.add(status(ReplicaDataSources.PRIMARY, null, true));
+		var lags = this.lags;
+		boolean stale = isStale();
+		for (int replica = 0; replica < lags.length; replica++) {
+			status.add(status(ReplicaDataSources.replicaName(replica), lags[replica], !stale && isAvailable(replica)));
+		}
+		return status;
+	}
+
+	private Map<String, Object> status(String name, Duration lag, boolean available) {
+		var status = new LinkedHashMap<String, Object>();
+		status.put("datasource", name);
+		status.put("available", available);
+		if (lag != null) {
+			status.put("lagMillis", lag.toMillis());
+		}
+		status.put("queries", this.queryCounts.get(name).sum());
+		return status;
+	}
+}
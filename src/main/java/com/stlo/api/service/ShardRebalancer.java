@@ -0,0 +1,201 @@
+package com.stlo.api.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import com.stlo.api.config.ShardDataSources;
+import com.stlo.api.repository.ShardContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Moves buckets of users between shards, to spread the users after shards were added. Users,
+ * credentials and outbox entries of the buckets are copied to the target shard in batches, then
+ * the buckets are assigned to the target and deleted from the source. Writes to the buckets wait
+ * meanwhile, reads are served by the source until the buckets are assigned. Listings may return a
+ * moved user twice until it is deleted from the source, {@link UsersService} drops the duplicates.
+ * <p>
+ * A move that was interrupted leaves copies nothing is routed to, moving the buckets again
+ * deletes them first. Moves are not logged in the {@link UserChangeLog}, the log of the source is
+ * truncated to its head instead, see {@link UserChangeLog#truncateToHead(int)}.
+ */
+public class ShardRebalancer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ShardRebalancer.class);
+
+	private final ShardRouter shardRouter;
+	private final ShardDataSources shards;
+	private final UserChangeLog changeLog;
+	private final int batchSize;
+	private final Counter movedCounter;
+
+	public ShardRebalancer(
+			final ShardRouter shardRouter,
+			final ShardDataSources shards,
+			final UserChangeLog changeLog,
+			final MeterRegistry meterRegistry,
+			final int batchSize) {
+
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+		Assert.notNull(shards, ShardDataSources.class + " must not be null");
+		Assert.notNull(changeLog, UserChangeLog.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.isTrue(shards.size() == shardRouter.getShardCount(), "router and data sources must have the same shards");
+		Assert.isTrue(batchSize > 0, "rebalance batch size must be positive");
+
+		this.shardRouter = shardRouter;
+		this.shards = shards;
+		this.changeLog = changeLog;
+		this.batchSize = batchSize;
+		this.movedCounter = Counter.builder("users.sharding.moved")
+				.description("Users moved to another shard by the rebalancer")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Moves buckets until every shard has the same share of buckets, give or take one. The
+	 * buckets of one source and target are moved in one pass.
+	 *
+	 * @return the number of moved users
+	 */
+	public synchronized long rebalance() {
+		var counts = this.shardRouter.getBucketCounts();
+		int shardCount = counts.length;
+
+		// buckets above the even share, the highest buckets of a shard move first
+		var surplus = new ArrayDeque<int[]>();
+		for (int shard = 0; shard < shardCount; shard++) {
+			var buckets = this.shardRouter.getBuckets(shard);
+			Collections.reverse(buckets);
+			for (int i = 0; i < counts[shard] - share(shard, shardCount); i++) {
+				surplus.add(new int[] { buckets.get(i), shard });
+			}
+		}
+		// target -> source -> buckets
+		var moves = new TreeMap<Integer, Map<Integer, List<Integer>>>();
+		for (int shard = 0; shard < shardCount; shard++) {
+			for (int i = counts[shard]; i < share(shard, shardCount) && !surplus.isEmpty(); i++) {
+				var move = surplus.poll();
+				moves.computeIfAbsent(shard, target -> new TreeMap<>())
+						.computeIfAbsent(move[1], source -> new ArrayList<>())
+						.add(move[0]);
+			}
+		}
+
+		long moved = 0;
+		for (var target : moves.entrySet()) {
+			for (var source : target.getValue().values()) {
+				moved += moveBuckets(source, target.getKey());
+			}
+		}
+		return moved;
+	}
+
+	private static int share(int shard, int shardCount) {
+		return ShardContext.BUCKETS / shardCount + (shard < ShardContext.BUCKETS % shardCount ? 1 : 0);
+	}
+
+	/**
+	 * Moves the buckets to the target shard.
+	 *
+	 * @return the number of moved users
+	 */
+	public synchronized long moveBuckets(Collection<Integer> buckets, int target) {
+		Assert.isTrue(target >= 0 && target < this.shards.size(), "unknown shard " + target);
+		var bySource = buckets.stream()
+				.filter(bucket -> this.shardRouter.getBucketShard(bucket) != target)
+				.collect(Collectors.groupingBy(bucket -> this.shardRouter.getBucketShard(bucket), TreeMap::new,
+						Collectors.toList()));
+
+		long moved = 0;
+		for (var source : bySource.entrySet()) {
+			moved += this.shardRouter.withBucketsLocked(source.getValue(),
+					() -> move(source.getValue(), source.getKey(), target));
+		}
+		return moved;
+	}
+
+	private long move(List<Integer> buckets, int source, int target) {
+		long start = System.nanoTime();
+		var filter = "BITAND(%s, " + (ShardContext.BUCKETS - 1) + ") IN ("
+				+ buckets.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")";
+
+		delete(target, filter);
+		long users = copy(source, target, "users", "id", filter, "id", "name", "version");
+		copy(source, target, "credentials", "user_id", filter, "user_id", "password");
+		copy(source, target, "credential_outbox", "user_id", filter, "user_id", "created_at");
+		this.shardRouter.assign(buckets, target);
+		delete(source, filter);
+		if (users > 0) {
+			this.changeLog.truncateToHead(source);
+		}
+
+		this.movedCounter.increment(users);
+		LOG.info("Moved {} buckets with {} users from shard {} to shard {} in {} ms", buckets.size(), users, source,
+				target, (System.nanoTime() - start) / 1_000_000);
+		return users;
+	}
+
+	/**
+	 * Copies the rows of the buckets in batches ordered by the key, one transaction per batch.
+	 *
+	 * @return the number of copied rows
+	 */
+	private long copy(int source, int target, String table, String key, String filter, String... columns) {
+		var from = new JdbcTemplate(this.shards.get(source));
+		var to = transactionTemplate(target);
+		var toJdbc = new JdbcTemplate(this.shards.get(target));
+		var select = "SELECT " + String.join(", ", columns) + " FROM " + table + " WHERE " + key + " > ? AND "
+				+ String.format(filter, key) + " ORDER BY " + key + " LIMIT ?";
+		var insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+				+ String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+
+		long copied = 0;
+		long after = Long.MIN_VALUE;
+		List<Object[]> rows;
+		do {
+			rows = from.query(select, (resultSet, row) -> {
+				var values = new Object[columns.length];
+				for (int i = 0; i < columns.length; i++) {
+					values[i] = resultSet.getObject(i + 1);
+				}
+				return values;
+			}, after, this.batchSize);
+			if (rows.isEmpty()) {
+				break;
+			}
+			var batch = rows;
+			to.executeWithoutResult(status -> toJdbc.batchUpdate(insert, batch));
+			after = ((Number) rows.get(rows.size() - 1)[0]).longValue();
+			copied += rows.size();
+		} while (rows.size() == this.batchSize);
+		return copied;
+	}
+
+	private void delete(int shard, String filter) {
+		var jdbc = new JdbcTemplate(this.shards.get(shard));
+		transactionTemplate(shard).executeWithoutResult(status -> {
+			jdbc.update("DELETE FROM credentials WHERE " + String.format(filter, "user_id"));
+			jdbc.update("DELETE FROM credential_outbox WHERE " + String.format(filter, "user_id"));
+			jdbc.update("DELETE FROM users WHERE " + String.format(filter, "id"));
+		});
+	}
+
+	private TransactionTemplate transactionTemplate(int shard) {
+		return new TransactionTemplate(new DataSourceTransactionManager(this.shards.get(shard)));
+	}
+}
@@ -0,0 +1,353 @@
+package com.stlo.api.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.Assert;
+
+import com.stlo.api.exception.ServiceUnavailableException;
+import com.stlo.api.model.db.ShardBucket;
+import com.stlo.api.repository.ShardBucketsRepository;
+import com.stlo.api.repository.ShardContext;
+import com.stlo.api.repository.UsersRepository;
+
+/**
+ * Routes repository calls to the shard that stores a user. Users are spread over
+ * {@link ShardContext#BUCKETS} buckets by the low bits of their id, the bucket map assigns every
+ * bucket to a shard and is kept in the first shard. New users are placed in the buckets round
+ * robin. Operations on one user run on its shard, listings run on all shards in parallel.
+ * <p>
+ * Writes to a bucket hold its read lock, the {@link ShardRebalancer} holds the write lock while
+ * it moves the bucket. The locks are local, buckets must only be moved while one instance writes.
+ * Other instances reload the bucket map every <code>users.sharding.buckets.refresh-interval</code>
+ * and route moved buckets to the old shard until then. With a single database every operation
+ * runs as is.
+ */
+public class ShardRouter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ShardRouter.class);
+
+	private final int shardCount;
+	private final ShardBucketsRepository bucketsRepository;
+	private final ReentrantReadWriteLock[] bucketLocks;
+	private final AtomicInteger nextBucket = new AtomicInteger();
+	private final ExecutorService fanOutExecutor;
+
+	// replaced as a whole when buckets move
+	private volatile int[] bucketShards;
+
+	private ShardRouter() {
+		this.shardCount = 1;
+		this.bucketsRepository = null;
+		this.bucketLocks = null;
+		this.fanOutExecutor = null;
+		this.bucketShards = null;
+	}
+
+	/**
+	 * Routes over <code>shardCount</code> shards. On the first start the buckets are spread
+	 * evenly if the first shard holds no users yet, otherwise they all stay with the first
+	 * shard until the {@link ShardRebalancer} moves them.
+	 *
+	 * @param fanOutThreads threads for queries on all shards, 0 for one per shard
+	 */
+	public ShardRouter(int shardCount, ShardBucketsRepository bucketsRepository, UsersRepository usersRepository,
+			int fanOutThreads) {
+
+		Assert.isTrue(shardCount > 0, "shard count must be positive");
+		Assert.notNull(bucketsRepository, ShardBucketsRepository.class + " must not be null");
+		Assert.notNull(usersRepository, UsersRepository.class + " must not be null");
+
+		this.shardCount = shardCount;
+		this.bucketsRepository = bucketsRepository;
+		this.bucketLocks = new ReentrantReadWriteLock[ShardContext.BUCKETS];
+		for (int bucket = 0; bucket < ShardContext.BUCKETS; bucket++) {
+			this.bucketLocks[bucket] = new ReentrantReadWriteLock();
+		}
+		var threads = new AtomicInteger();
+		this.fanOutExecutor = Executors.newFixedThreadPool(fanOutThreads > 0 ? fanOutThreads : shardCount, runnable -> {
+			var thread = new Thread(runnable, "shard-fan-out-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.bucketShards = onShard(0, () -> loadBuckets(usersRepository));
+	}
+
+	/**
+	 * Router of a single database, runs every operation as is.
+	 */
+	public static ShardRouter single() {
+		return new ShardRouter();
+	}
+
+	private int[] loadBuckets(UsersRepository usersRepository) {
+		var buckets = this.bucketsRepository.findAll();
+		if (buckets.isEmpty()) {
+			boolean spread = usersRepository.count() == 0;
+			buckets = IntStream.range(0, ShardContext.BUCKETS)
+					.mapToObj(bucket -> new ShardBucket(bucket, spread ? bucket % this.shardCount : 0))
+					.collect(Collectors.toList());
+			this.bucketsRepository.saveAll(buckets);
+			LOG.info(spread ? "Buckets spread over {} shards" : "Buckets assigned to the first of {} shards, "
+					+ "rebalance to spread the existing users", this.shardCount);
+		}
+		return toShards(buckets);
+	}
+
+	private int[] toShards(List<ShardBucket> buckets) {
+		Assert.isTrue(buckets.size() == ShardContext.BUCKETS, "bucket map must have " + ShardContext.BUCKETS + " buckets");
+
+		var shards = new int[ShardContext.BUCKETS];
+		for (var bucket : buckets) {
+			Assert.isTrue(bucket.getShard() < this.shardCount, "bucket " + bucket.getBucket() + " is assigned to shard "
+					+ bucket.getShard() + ", only " + this.shardCount + " shards are configured");
+			shards[bucket.getBucket()] = bucket.getShard();
+		}
+		return shards;
+	}
+
+	public boolean isSharded() {
+		return this.bucketShards != null;
+	}
+
+	public int getShardCount() {
+		return this.shardCount;
+	}
+
+	public int shardOf(long userId) {
+		return getBucketShard(ShardContext.bucketOf(userId));
+	}
+
+	/**
+	 * Number of buckets per shard.
+	 */
+	public int[] getBucketCounts() {
+		var counts = new int[this.shardCount];
+		if (!isSharded()) {
+			counts[0] = ShardContext.BUCKETS;
+			return counts;
+		}
+		for (var shard : this.bucketShards) {
+			counts[shard]++;
+		}
+		return counts;
+	}
+
+	int getBucketShard(int bucket) {
+		return isSharded() ? this.bucketShards[bucket] : 0;
+	}
+
+	/**
+	 * Buckets of the shard in ascending order.
+	 */
+	List<Integer> getBuckets(int shard) {
+		var shards = this.bucketShards;
+		return IntStream.range(0, ShardContext.BUCKETS).filter(bucket -> shards[bucket] == shard).boxed()
+				.collect(Collectors.toList());
+	}
+
+	public <T> T onShard(int shard, Supplier<T> operation) {
+		return ShardContext.call(shard, ShardContext.UNBOUND, operation);
+	}
+
+	/**
+	 * Runs a read of the user on its shard.
+	 */
+	public <T> T forUser(long userId, Supplier<T> operation) {
+		if (!isSharded()) {
+			return operation.get();
+		}
+		return onShard(shardOf(userId), operation);
+	}
+
+	/**
+	 * Runs a create on the shard of the next bucket, new users get ids of that bucket. Buckets
+	 * being moved are skipped.
+	 */
+	public <T> T create(Supplier<T> operation) {
+		if (!isSharded()) {
+			return operation.get();
+		}
+		for (int attempt = 0; attempt < ShardContext.BUCKETS; attempt++) {
+			int bucket = Math.floorMod(this.nextBucket.getAndIncrement(), ShardContext.BUCKETS);
+			var lock = this.bucketLocks[bucket].readLock();
+			if (lock.tryLock()) {
+				try {
+					return ShardContext.call(this.bucketShards[bucket], bucket, operation);
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		throw new ServiceUnavailableException();
+	}
+
+	/**
+	 * Runs a write of the users once per shard with the ids stored there, in shard order. The
+	 * buckets of the ids are locked against moves meanwhile.
+	 *
+	 * @return the results per shard
+	 */
+	public <T> List<T> forUsers(Collection<Long> userIds, BiFunction<Integer, Collection<Long>, T> operation) {
+		if (!isSharded()) {
+			return List.of(operation.apply(0, userIds));
+		}
+		var locks = new ArrayList<Lock>();
+		var buckets = new TreeSet<Integer>();
+		userIds.forEach(userId -> buckets.add(ShardContext.bucketOf(userId)));
+		try {
+			for (var bucket : buckets) {
+				var lock = this.bucketLocks[bucket].readLock();
+				lock.lock();
+				locks.add(lock);
+			}
+			var byShard = new TreeMap<Integer, List<Long>>();
+			userIds.forEach(userId -> byShard.computeIfAbsent(shardOf(userId), shard -> new ArrayList<>()).add(userId));
+
+			var results = new ArrayList<T>(byShard.size());
+			byShard.forEach((shard, ids) -> results.add(onShard(shard, () -> operation.apply(shard, ids))));
+			return results;
+		} finally {
+			locks.forEach(Lock::unlock);
+		}
+	}
+
+	/**
+	 * Runs the operation on every shard, one after another.
+	 */
+	public void forEachShard(IntConsumer operation) {
+		if (!isSharded()) {
+			operation.accept(0);
+			return;
+		}
+		for (int shard = 0; shard < this.shardCount; shard++) {
+			int current = shard;
+			onShard(shard, () -> {
+				operation.accept(current);
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * Runs the operation on every shard in parallel.
+	 *
+	 * @return the results in shard order
+	 */
+	public <T> List<T> fanOut(IntFunction<T> operation) {
+		var results = fanOut(IntStream.range(0, this.shardCount).boxed().collect(Collectors.toList()), operation);
+		return new ArrayList<>(results.values());
+	}
+
+	/**
+	 * Runs the operation on the given shards in parallel, a single shard runs on the calling thread.
+	 *
+	 * @return the results by shard, in the order of the shards
+	 */
+	public <T> Map<Integer, T> fanOut(Collection<Integer> shards, IntFunction<T> operation) {
+		var results = new LinkedHashMap<Integer, T>();
+		if (!isSharded() || shards.size() == 1) {
+			shards.forEach(shard -> results.put(shard, isSharded() ? onShard(shard, () -> operation.apply(shard))
+					: operation.apply(shard)));
+			return results;
+		}
+		var futures = new LinkedHashMap<Integer, CompletableFuture<T>>();
+		for (var shard : shards) {
+			futures.put(shard, CompletableFuture.supplyAsync(() -> onShard(shard, () -> operation.apply(shard)),
+					this.fanOutExecutor));
+		}
+		try {
+			futures.forEach((shard, future) -> results.put(shard, future.join()));
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the operation with the buckets locked against writes, in ascending order.
+	 */
+	<T> T withBucketsLocked(Collection<Integer> buckets, Supplier<T> operation) {
+		var locks = new ArrayList<Lock>();
+		try {
+			for (var bucket : new TreeSet<>(buckets)) {
+				var lock = this.bucketLocks[bucket].writeLock();
+				lock.lock();
+				locks.add(lock);
+			}
+			return operation.get();
+		} finally {
+			locks.forEach(Lock::unlock);
+		}
+	}
+
+	/**
+	 * Assigns the buckets to the shard, in the stored map first.
+	 */
+	synchronized void assign(Collection<Integer> buckets, int shard) {
+		Assert.isTrue(shard >= 0 && shard < this.shardCount, "unknown shard " + shard);
+		onShard(0, () -> this.bucketsRepository.assign(buckets, shard));
+		var shards = this.bucketShards.clone();
+		buckets.forEach(bucket -> shards[bucket] = shard);
+		this.bucketShards = shards;
+	}
+
+	/**
+	 * Reloads the bucket map from the first shard, for buckets moved by another instance.
+	 *
+	 * @return the number of buckets assigned to another shard since the last load
+	 */
+	@Scheduled(initialDelayString = "${users.sharding.buckets.refresh-interval:PT5S}",
+			fixedDelayString = "${users.sharding.buckets.refresh-interval:PT5S}")
+	public synchronized int refresh() {
+		if (!isSharded()) {
+			return 0;
+		}
+		var shards = onShard(0, () -> toShards(this.bucketsRepository.findAll()));
+		var current = this.bucketShards;
+		int moved = 0;
+		for (int bucket = 0; bucket < ShardContext.BUCKETS; bucket++) {
+			if (shards[bucket] != current[bucket]) {
+				moved++;
+			}
+		}
+		if (moved > 0) {
+			this.bucketShards = shards;
+			LOG.info("Reloaded the bucket map, {} buckets were moved by another instance", moved);
+		}
+		return moved;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		if (this.fanOutExecutor != null) {
+			this.fanOutExecutor.shutdown();
+		}
+	}
+}
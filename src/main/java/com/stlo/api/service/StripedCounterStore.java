@@ -0,0 +1,159 @@
+package com.stlo.api.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * In-memory {@link CounterStore}. Keys are spread over a fixed number of stripes with a lock
+ * each, so requests for different keys rarely wait for each other. A key is dropped once its
+ * bucket is full again, its failures are expired and it is no longer blocked. Expired keys of
+ * a stripe are removed every {@value #SWEEP_INTERVAL} operations on it.
+ */
+public class StripedCounterStore implements CounterStore {
+
+	static final int SWEEP_INTERVAL = 1024;
+
+	private final Clock clock;
+	private final Stripe[] stripes;
+
+	public StripedCounterStore(Clock clock, int stripes) {
+		Assert.notNull(clock, Clock.class + " must not be null");
+		Assert.isTrue(stripes > 0 && Integer.bitCount(stripes) == 1, "stripes must be a power of two");
+
+		this.clock = clock;
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Bucket as a theoretical arrival time (GCRA): a token is available if the next refill is
+	 * due less than <code>capacity</code> intervals ahead. One timestamp per key, no refill loop.
+	 */
+	@Override
+	public long tryConsume(String key, int capacity, Duration refillInterval) {
+		long interval = refillInterval.toMillis();
+		long burst = (capacity - 1) * interval;
+		long now = this.clock.millis();
+		var stripe = stripe(key);
+		synchronized (stripe) {
+			var entry = stripe.entry(key, now);
+			long arrival = Math.max(entry.arrival, now);
+			if (arrival - now > burst) {
+				return arrival - burst - now;
+			}
+			entry.arrival = arrival + interval;
+			return 0;
+		}
+	}
+
+	@Override
+	public int recordFailure(String key, Duration window) {
+		long now = this.clock.millis();
+		var stripe = stripe(key);
+		synchronized (stripe) {
+			var entry = stripe.entry(key, now);
+			if (entry.failuresExpireAt <= now) {
+				entry.failures = 0;
+			}
+			entry.failuresExpireAt = now + window.toMillis();
+			return ++entry.failures;
+		}
+	}
+
+	@Override
+	public void block(String key, Duration duration) {
+		long now = this.clock.millis();
+		var stripe = stripe(key);
+		synchronized (stripe) {
+			var entry = stripe.entry(key, now);
+			entry.blockedUntil = Math.max(entry.blockedUntil, now + duration.toMillis());
+		}
+	}
+
+	@Override
+	public long blockedFor(String key) {
+		long now = this.clock.millis();
+		var stripe = stripe(key);
+		synchronized (stripe) {
+			var entry = stripe.entries.get(key);
+			return entry == null ? 0 : Math.max(0, entry.blockedUntil - now);
+		}
+	}
+
+	@Override
+	public void reset(String key) {
+		var stripe = stripe(key);
+		synchronized (stripe) {
+			var entry = stripe.entries.get(key);
+			if (entry != null) {
+				entry.failures = 0;
+				entry.failuresExpireAt = 0;
+				entry.blockedUntil = 0;
+			}
+		}
+	}
+
+	@Override
+	public long size() {
+		long size = 0;
+		for (var stripe : this.stripes) {
+			synchronized (stripe) {
+				size += stripe.entries.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Removes expired keys of all stripes.
+	 */
+	public void evictExpired() {
+		long now = this.clock.millis();
+		for (var stripe : this.stripes) {
+			synchronized (stripe) {
+				stripe.sweep(now);
+			}
+		}
+	}
+
+	private Stripe stripe(String key) {
+		int hash = key.hashCode();
+		return this.stripes[(hash ^ (hash >>> 16)) & (this.stripes.length - 1)];
+	}
+
+	private static final class Stripe {
+
+		final Map<String, Entry> entries = new HashMap<>();
+		int operations;
+
+		Entry entry(String key, long now) {
+			if (++this.operations == SWEEP_INTERVAL) {
+				this.operations = 0;
+				sweep(now);
+			}
+			return this.entries.computeIfAbsent(key, k -> new Entry());
+		}
+
+		void sweep(long now) {
+			this.entries.values().removeIf(entry -> entry.expired(now));
+		}
+	}
+
+	private static final class Entry {
+
+		long arrival;
+		int failures;
+		long failuresExpireAt;
+		long blockedUntil;
+
+		boolean expired(long now) {
+			return this.arrival <= now && this.failuresExpireAt <= now && this.blockedUntil <= now;
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package com.stlo.api.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import com.stlo.api.exception.BadRequestException;
+import com.stlo.api.exception.GoneException;
+import com.stlo.api.exception.ServiceUnavailableException;
+import com.stlo.api.model.ChangePage;
+import com.stlo.api.model.db.UserChange;
+import com.stlo.api.repository.ReplicaContext;
+import com.stlo.api.repository.ShardContext;
+import com.stlo.api.repository.UserChangesRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Append-only log of created and removed users for consumers that keep a copy. Entries are
+ * written from {@link UsersCreatedEvent} and {@link UsersRemovedEvent} right before their
+ * transaction commits. Seqs are taken from the locked head row, so entries commit in seq order
+ * and a consumer that resumes after the last seq it read cannot miss an entry committed later
+ * with a lower seq.
+ * <p>
+ * The created entry of a removed user is compacted away, entries older than the retention are
+ * truncated. A consumer behind the truncated seq has to start over from the export.
+ * <p>
+ * With sharded storage every shard has a log of its own, written by the transactions on the
+ * shard. A position in the log is a shard and a seq, a consumer follows the log of every shard.
+ * <p>
+ * Off unless <code>users.changes.enabled</code>, the head row serializes all creates and removes
+ * of a shard.
+ */
+@Service
+public class UserChangeLog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserChangeLog.class);
+
+	private final UserChangesRepository changesRepository;
+	private final ShardRouter shardRouter;
+	private final TransactionTemplate readTemplate;
+	private final Clock clock;
+	private final boolean enabled;
+	private final Duration retention;
+	private final int batchSize;
+	private final int maxWaiters;
+	private final ExecutorService reader;
+	private final Counter compactedCounter;
+	private final Counter truncatedCounter;
+
+	private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger waiterCount = new AtomicInteger();
+	// highest seq per shard committed by this instance, changes of other instances are seen by polling
+	private final AtomicLongArray committedSeqs;
+	// removed entries up to this seq per shard are compacted, the first run after a start checks all
+	private final long[] compactedSeqs;
+
+	public UserChangeLog(
+			final UserChangesRepository changesRepository,
+			final ShardRouter shardRouter,
+			final PlatformTransactionManager transactionManager,
+			final MeterRegistry meterRegistry,
+			@Value("${users.changes.enabled:false}") final boolean enabled,
+			@Value("${users.changes.retention:P7D}") final Duration retention,
+			@Value("${users.changes.compaction.batch-size:10000}") final int batchSize,
+			@Value("${users.changes.poll.max-waiters:1000}") final int maxWaiters) {
+
+		Assert.notNull(changesRepository, UserChangesRepository.class + " must not be null");
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+		Assert.notNull(transactionManager, PlatformTransactionManager.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.isTrue(!retention.isNegative() && !retention.isZero(), "change retention must be positive");
+		Assert.isTrue(batchSize > 0, "change compaction batch size must be positive");
+		Assert.isTrue(maxWaiters > 0, "max waiters must be positive");
+
+		this.changesRepository = changesRepository;
+		this.shardRouter = shardRouter;
+		this.committedSeqs = new AtomicLongArray(shardRouter.getShardCount());
+		this.compactedSeqs = new long[shardRouter.getShardCount()];
+		this.readTemplate = new TransactionTemplate(transactionManager);
+		this.readTemplate.setReadOnly(true);
+		this.clock = Clock.systemUTC();
+		this.enabled = enabled;
+		this.retention = retention;
+		this.batchSize = batchSize;
+		this.maxWaiters = maxWaiters;
+		// one thread serves all woken polls, commits never wait for a read
+		this.reader = Executors.newSingleThreadExecutor(runnable -> {
+			var thread = new Thread(runnable, "user-changes");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.compactedCounter = Counter.builder("users.changes.removed")
+				.description("Change log entries removed by compaction or retention")
+				.tag("reason", "compacted")
+				.register(meterRegistry);
+		this.truncatedCounter = Counter.builder("users.changes.removed")
+				.description("Change log entries removed by compaction or retention")
+				.tag("reason", "retention")
+				.register(meterRegistry);
+		Gauge.builder("users.changes.waiters", this.waiterCount, AtomicInteger::get)
+				.description("Polls waiting for the next change")
+				.register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	@TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+	public void onCreated(UsersCreatedEvent event) {
+		if (this.enabled) {
+			var now = this.clock.instant();
+			append(event.getUsers(), (seq, user) -> new UserChange(seq, UserChange.Type.CREATED, user.getId(), user.getName(), now));
+		}
+	}
+
+	@TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+	public void onRemoved(UsersRemovedEvent event) {
+		if (this.enabled) {
+			var userIds = new ArrayList<>(event.getUserIds());
+			userIds.sort(null);
+			var now = this.clock.instant();
+			append(userIds, (seq, userId) -> new UserChange(seq, UserChange.Type.REMOVED, userId, null, now));
+		}
+	}
+
+	private <T> void append(List<T> items, BiFunction<Long, T, UserChange> change) {
+		if (items.isEmpty()) {
+			return;
+		}
+		// the log of the shard the transaction runs on
+		int shard = Math.max(0, ShardContext.shard());
+		// the inserts of the transaction go first, the head row is locked for the entries and the commit only
+		this.changesRepository.flush();
+		this.changesRepository.advanceHeadSeq(items.size());
+		long last = this.changesRepository.findHeadSeq();
+
+		long seq = last - items.size();
+		var entries = new ArrayList<UserChange>(items.size());
+		for (var item : items) {
+			entries.add(change.apply(++seq, item));
+		}
+		this.changesRepository.saveAll(entries);
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				committedSeqs.accumulateAndGet(shard, last, Math::max);
+				wake(shard);
+			}
+		});
+	}
+
+	/**
+	 * Seq of the last committed change of the shard.
+	 */
+	public long getHeadSeq(int shard) {
+		return onShard(shard, () -> ReplicaContext.onPrimary(this.changesRepository::findHeadSeq));
+	}
+
+	/**
+	 * Seqs of the last committed changes in shard order.
+	 */
+	public List<Long> getHeadSeqs() {
+		return this.shardRouter.fanOut(shard -> ReplicaContext.onPrimary(this.changesRepository::findHeadSeq));
+	}
+
+	/**
+	 * Up to <code>limit</code> changes of the shard after <code>since</code>. Without any,
+	 * completes with the changes committed within <code>wait</code> or with an empty page. Polls
+	 * are woken by commits of this instance, changes committed by another instance are returned by
+	 * the next poll.
+	 *
+	 * @throws BadRequestException if there is no such shard
+	 * @throws GoneException if changes after <code>since</code> were truncated
+	 * @throws ServiceUnavailableException if too many polls are waiting
+	 */
+	public CompletableFuture<ChangePage> poll(int shard, long since, int limit, Duration wait) {
+		if (!this.enabled) {
+			throw new ServiceUnavailableException();
+		}
+		if (shard < 0 || shard >= this.shardRouter.getShardCount()) {
+			throw new BadRequestException("Unknown shard " + shard);
+		}
+		var page = read(shard, since, limit);
+		if (!page.getChanges().isEmpty() || wait.isZero() || wait.isNegative()) {
+			return CompletableFuture.completedFuture(page);
+		}
+
+		if (this.waiterCount.incrementAndGet() > this.maxWaiters) {
+			this.waiterCount.decrementAndGet();
+			throw new ServiceUnavailableException();
+		}
+		var waiter = new Waiter(shard, since, limit);
+		this.waiters.add(waiter);
+		// a commit between the read and adding the waiter did not see it
+		if (this.committedSeqs.get(shard) > since) {
+			wake(shard);
+		}
+		return waiter.future
+				.completeOnTimeout(page, wait.toMillis(), TimeUnit.MILLISECONDS)
+				.whenComplete((result, failure) -> {
+					if (this.waiters.remove(waiter)) {
+						this.waiterCount.decrementAndGet();
+					}
+				});
+	}
+
+	private ChangePage read(int shard, long since, int limit) {
+		// a replica may not have the changes a commit of this instance woke the poll for
+		return onShard(shard, () -> ReplicaContext.onPrimary(() -> this.readTemplate.execute(status -> {
+			if (since < this.changesRepository.findTruncatedSeq()) {
+				throw new GoneException("Changes after " + since + " are truncated, start over from the export");
+			}
+			return ChangePage.of(shard, this.changesRepository.findDtoBySeqGreaterThan(since, PageRequest.ofSize(limit)),
+					since);
+		})));
+	}
+
+	/**
+	 * Serves the waiters of the shard behind its committed seq, waiters at the same seq share one
+	 * read.
+	 */
+	private void wake(int shard) {
+		long seq = this.committedSeqs.get(shard);
+		var ready = new HashMap<Long, List<Waiter>>();
+		for (var waiter : this.waiters) {
+			if (waiter.shard == shard && waiter.since < seq && waiter.claimed.compareAndSet(false, true)) {
+				ready.computeIfAbsent(waiter.since, since -> new ArrayList<>()).add(waiter);
+			}
+		}
+		ready.forEach((since, group) -> this.reader.execute(() -> serve(shard, since, group)));
+	}
+
+	private void serve(int shard, long since, List<Waiter> group) {
+		int limit = group.stream().mapToInt(waiter -> waiter.limit).max().getAsInt();
+		try {
+			var page = read(shard, since, limit);
+			group.forEach(waiter -> waiter.future.complete(page.limit(waiter.limit)));
+		} catch (RuntimeException e) {
+			group.forEach(waiter -> waiter.future.completeExceptionally(e));
+		}
+	}
+
+	/**
+	 * Removes the created entries of removed users, then the entries older than the retention, on
+	 * every shard. Every step runs in a small transaction of its own.
+	 *
+	 * @return the number of removed entries
+	 */
+	@Scheduled(initialDelayString = "${users.changes.compaction.initial-delay:PT1M}",
+			fixedDelayString = "${users.changes.compaction.interval:PT10M}")
+	public synchronized int compact() {
+		int compacted = ReplicaContext.onPrimary(this::compactSuperseded);
+		int truncated = ReplicaContext.onPrimary(() -> truncate(this.clock.instant().minus(this.retention)));
+
+		if (compacted + truncated > 0) {
+			LOG.info("Removed {} compacted and {} expired change log entries", compacted, truncated);
+		}
+		return compacted + truncated;
+	}
+
+	synchronized int compactSuperseded() {
+		var compacted = new int[1];
+		this.shardRouter.forEachShard(shard -> {
+			Long upTo;
+			while ((upTo = this.changesRepository.findSeqWindowEnd(this.compactedSeqs[shard], this.batchSize)) != null) {
+				compacted[0] += this.changesRepository.deleteSuperseded(this.compactedSeqs[shard], upTo);
+				this.compactedSeqs[shard] = upTo;
+			}
+		});
+		this.compactedCounter.increment(compacted[0]);
+		return compacted[0];
+	}
+
+	synchronized int truncate(Instant before) {
+		var truncated = new int[1];
+		this.shardRouter.forEachShard(shard -> {
+			Long expired;
+			while ((expired = this.changesRepository.findExpiredSeq(before, this.batchSize)) != null) {
+				// consumers behind it are turned away before the entries are gone
+				this.changesRepository.truncateTo(expired);
+				truncated[0] += this.changesRepository.deleteUpTo(expired);
+			}
+		});
+		this.truncatedCounter.increment(truncated[0]);
+		return truncated[0];
+	}
+
+	/**
+	 * Turns away the consumers behind the head of the shard, they start over from the export.
+	 * Called after users were moved off the shard: the removal of a moved user is logged on its
+	 * new shard, a consumer behind on the old one could apply it before the creation.
+	 */
+	public void truncateToHead(int shard) {
+		if (this.enabled) {
+			onShard(shard, () -> ReplicaContext.onPrimary(this.changesRepository::truncateToHead));
+		}
+	}
+
+	private <T> T onShard(int shard, Supplier<T> operation) {
+		return this.shardRouter.isSharded() ? this.shardRouter.onShard(shard, operation) : operation.get();
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.reader.shutdown();
+	}
+
+	private static final class Waiter {
+
+		private final int shard;
+		private final long since;
+		private final int limit;
+		private final CompletableFuture<ChangePage> future = new CompletableFuture<>();
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		Waiter(int shard, long since, int limit) {
+			this.shard = shard;
+			this.since = since;
+			this.limit = limit;
+		}
+	}
+}
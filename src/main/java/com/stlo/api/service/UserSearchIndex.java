@@ -0,0 +1,250 @@
+package com.stlo.api.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import com.stlo.api.exception.ServiceUnavailableException;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.repository.ReplicaContext;
+import com.stlo.api.repository.UsersRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * In-memory prefix index over the words of user names. Every word is stored lower case and
+ * without accents in a sorted set, a prefix query is a range scan. Built from the database
+ * before the web server starts and kept current from {@link UsersCreatedEvent} and
+ * {@link UsersRemovedEvent} after their transaction committed.
+ */
+@Service
+public class UserSearchIndex implements SmartInitializingSingleton {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UserSearchIndex.class);
+
+	private static final Pattern WORDS = Pattern.compile("[^\\p{L}\\p{N}]+");
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	// rough sizes on a 64 bit JVM with compressed oops: skip list node and index, entry, word
+	// string, map node, UserDto and name string. Shared strings are counted per entry
+	private static final long ENTRY_BYTES = 32 + 24 + 56;
+	private static final long USER_BYTES = 48 + 24 + 16 + 56;
+
+	private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>();
+	private final Map<Long, UserDto> users = new ConcurrentHashMap<>();
+	private final AtomicLong nameChars = new AtomicLong();
+	// size() of the skip list walks all entries
+	private final AtomicLong entryCount = new AtomicLong();
+
+	private final UsersRepository usersRepository;
+	private final TransactionTemplate transactionTemplate;
+	private final ShardRouter shardRouter;
+	private final boolean enabled;
+
+	public UserSearchIndex(
+			final UsersRepository usersRepository,
+			final PlatformTransactionManager transactionManager,
+			final MeterRegistry meterRegistry,
+			final ShardRouter shardRouter,
+			@Value("${users.search.enabled:true}") final boolean enabled) {
+
+		Assert.notNull(usersRepository, UsersRepository.class + " must not be null");
+		Assert.notNull(transactionManager, PlatformTransactionManager.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+
+		this.usersRepository = usersRepository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setReadOnly(true);
+		this.shardRouter = shardRouter;
+		this.enabled = enabled;
+
+		Gauge.builder("users.search.index.users", this.users, Map::size)
+				.description("Users in the search index")
+				.register(meterRegistry);
+		Gauge.builder("users.search.index.entries", this, UserSearchIndex::getEntryCount)
+				.description("Words in the search index")
+				.register(meterRegistry);
+		Gauge.builder("users.search.index.size", this, UserSearchIndex::getEstimatedBytes)
+				.description("Estimated heap used by the search index")
+				.baseUnit("bytes")
+				.register(meterRegistry);
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		if (!this.enabled) {
+			return;
+		}
+		long start = System.nanoTime();
+		// from the primary, users created before the start are not announced by events
+		this.shardRouter.forEachShard(shard -> ReplicaContext.onPrimary(() -> this.transactionTemplate.execute(status -> {
+			try (var all = this.usersRepository.streamAll()) {
+				all.forEach(this::add);
+			}
+			return null;
+		})));
+		LOG.info("Search index of {} users and {} words built in {} ms, about {} MB", this.users.size(), getEntryCount(),
+				(System.nanoTime() - start) / 1_000_000, getEstimatedBytes() / (1024 * 1024));
+	}
+
+	@TransactionalEventListener
+	public void onCreated(UsersCreatedEvent event) {
+		if (this.enabled) {
+			event.getUsers().forEach(this::add);
+		}
+	}
+
+	@TransactionalEventListener
+	public void onRemoved(UsersRemovedEvent event) {
+		if (this.enabled) {
+			event.getUserIds().forEach(this::remove);
+		}
+	}
+
+	/**
+	 * Users with a word starting with every word of the query, ordered by the matched word and id.
+	 */
+	public Slice<UserDto> search(String query, Pageable pageable) {
+		if (!this.enabled) {
+			throw new ServiceUnavailableException();
+		}
+		var words = words(query);
+		if (words.isEmpty()) {
+			return new SliceImpl<>(List.of(), pageable, false);
+		}
+		// scan the longest word, it has the fewest candidates
+		var scanned = words.stream().max((a, b) -> Integer.compare(a.length(), b.length())).get();
+
+		var range = this.entries.subSet(new Entry(scanned, Long.MIN_VALUE), true,
+				new Entry(scanned + Character.MAX_VALUE, Long.MIN_VALUE), false);
+		long skip = pageable.getOffset();
+		var content = new ArrayList<UserDto>(pageable.getPageSize());
+		var seen = new HashSet<Long>();
+		for (var entry : range) {
+			var user = this.users.get(entry.userId);
+			if (user == null || !seen.add(entry.userId) || !matchesAll(user, words)) {
+				continue;
+			}
+			if (skip > 0) {
+				skip--;
+			} else if (content.size() < pageable.getPageSize()) {
+				content.add(user);
+			} else {
+				return new SliceImpl<>(content, pageable, true);
+			}
+		}
+		return new SliceImpl<>(content, pageable, false);
+	}
+
+	public long getEntryCount() {
+		return this.entryCount.get();
+	}
+
+	public long getEstimatedBytes() {
+		return this.users.size() * USER_BYTES + this.nameChars.get() + getEntryCount() * ENTRY_BYTES;
+	}
+
+	private void add(UserDto user) {
+		var previous = this.users.put(user.getId(), user);
+		if (previous != null) {
+			removeWords(previous);
+		}
+		this.nameChars.addAndGet(length(user));
+		for (var word : words(user.getName())) {
+			if (this.entries.add(new Entry(word, user.getId()))) {
+				this.entryCount.incrementAndGet();
+			}
+		}
+	}
+
+	private void remove(Long userId) {
+		var previous = this.users.remove(userId);
+		if (previous != null) {
+			removeWords(previous);
+		}
+	}
+
+	private void removeWords(UserDto user) {
+		this.nameChars.addAndGet(-length(user));
+		for (var word : words(user.getName())) {
+			if (this.entries.remove(new Entry(word, user.getId()))) {
+				this.entryCount.decrementAndGet();
+			}
+		}
+	}
+
+	private static int length(UserDto user) {
+		return user.getName() == null ? 0 : user.getName().length();
+	}
+
+	private static boolean matchesAll(UserDto user, Set<String> prefixes) {
+		var words = words(user.getName());
+		return prefixes.stream().allMatch(prefix -> words.stream().anyMatch(word -> word.startsWith(prefix)));
+	}
+
+	static Set<String> words(String text) {
+		if (text == null) {
+			return Set.of();
+		}
+		var folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+		var words = new HashSet<String>();
+		for (var word : WORDS.split(folded.toLowerCase(Locale.ROOT))) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+
+		private final String word;
+		private final long userId;
+
+		Entry(String word, long userId) {
+			this.word = word;
+			this.userId = userId;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int result = this.word.compareTo(other.word);
+			return result != 0 ? result : Long.compare(this.userId, other.userId);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Entry && compareTo((Entry) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.word, this.userId);
+		}
+	}
+}
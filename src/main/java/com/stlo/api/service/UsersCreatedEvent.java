@@ -0,0 +1,22 @@
+package com.stlo.api.service;
+
+import java.util.List;
+
+import com.stlo.api.model.UserDto;
+
+/**
+ * Published inside the transaction that created the users, listeners that must only see
+ * committed users use a {@link org.springframework.transaction.event.TransactionalEventListener}.
+ */
+public class UsersCreatedEvent {
+
+	private final List<UserDto> users;
+
+	public UsersCreatedEvent(List<UserDto> users) {
+		this.users = List.copyOf(users);
+	}
+
+	public List<UserDto> getUsers() {
+		return this.users;
+	}
+}
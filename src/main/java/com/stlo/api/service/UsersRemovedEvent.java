@@ -0,0 +1,21 @@
+package com.stlo.api.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Published inside the transaction that removed the users, with the ids of the users that
+ * existed.
+ */
+public class UsersRemovedEvent {
+
+	private final Set<Long> userIds;
+
+	public UsersRemovedEvent(Collection<Long> userIds) {
+		this.userIds = Set.copyOf(userIds);
+	}
+
+	public Set<Long> getUserIds() {
+		return this.userIds;
+	}
+}
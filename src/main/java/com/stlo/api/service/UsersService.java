@@ -1,85 +1,611 @@
 package com.stlo.api.service;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import javax.transaction.Transactional;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.lang.NonNull;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 
+import com.stlo.api.config.CacheConfig;
 import com.stlo.api.config.SecurityConfig;
+import com.stlo.api.exception.BadRequestException;
+import com.stlo.api.exception.ServiceUnavailableException;
+import com.stlo.api.exception.TooManyRequestsException;
+import com.stlo.api.model.BatchItemResult;
+import com.stlo.api.model.ChangePage;
 import com.stlo.api.model.Login;
+import com.stlo.api.model.UserDto;
 import com.stlo.api.model.db.User;
 import com.stlo.api.model.db.UserCredential;
 import com.stlo.api.repository.CredentialsRepository;
 import com.stlo.api.repository.UsersRepository;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Every public operation is timed as <code>users.service</code> with a <code>method</code> and an
+ * <code>outcome</code> tag. Query time is recorded per repository method by Spring Data as
+ * <code>spring.data.repository.invocations</code>, hash time as <code>users.password.hashing</code>.
+ * <p>
+ * Operations on users run on their shard through the {@link ShardRouter}, listings and the
+ * export merge the users of all shards in id order.
+ */
 @Service
 public class UsersService {
 
-	
+	private static final Logger LOG = LoggerFactory.getLogger(UsersService.class);
+
+	static final String METRIC = "users.service";
+
+	static final String SUCCESS = "success";
+	static final String FOUND = "found";
+	static final String NOT_FOUND = "not_found";
+	static final String AUTH_OK = "auth_ok";
+	static final String AUTH_FAIL = "auth_fail";
+	static final String REJECTED = "rejected";
+	static final String THROTTLED = "throttled";
+	static final String ERROR = "error";
+
+	// users per keyset query of a sharded export
+	private static final int EXPORT_CHUNK_SIZE = 1000;
+
 	private final UsersRepository usersRepository;
 	private final CredentialsRepository credentialsRepository;
 	private final PasswordEncoder passwordEncoder;
-	private final SecurityConfig securityConfig;
+	private final PasswordHashingService passwordHashingService;
+	private final DefaultCredentialService defaultCredentialService;
+	private final TransactionTemplate transactionTemplate;
+	private final TransactionTemplate readTemplate;
+	private final Validator validator;
+	private final int batchChunkSize;
+	private final Cache usersCache;
+	private final MeterRegistry meterRegistry;
+	private final ApplicationEventPublisher eventPublisher;
+	private final UserSearchIndex searchIndex;
+	private final LoginThrottle loginThrottle;
+	private final CredentialOutbox credentialOutbox;
+	private final UserChangeLog changeLog;
+	private final ShardRouter shardRouter;
+	// writes rehashed passwords, so no hashing worker waits for a connection
+	private final ExecutorService rehashWriter;
 
 	public UsersService(
 			final UsersRepository usersRepository,
 			final CredentialsRepository credentialsRepository,
 			final PasswordEncoder passwordEncoder,
-			final SecurityConfig securityConfig) {
+			final PasswordHashingService passwordHashingService,
+			final DefaultCredentialService defaultCredentialService,
+			final PlatformTransactionManager transactionManager,
+			final Validator validator,
+			final CacheManager cacheManager,
+			final MeterRegistry meterRegistry,
+			final ApplicationEventPublisher eventPublisher,
+			final UserSearchIndex searchIndex,
+			final LoginThrottle loginThrottle,
+			final CredentialOutbox credentialOutbox,
+			final UserChangeLog changeLog,
+			final ShardRouter shardRouter,
+			@Qualifier("passwordRehashWriter") final ExecutorService rehashWriter,
+			@Value("${users.batch.chunk-size:500}") final int batchChunkSize) {
 
 		Assert.notNull(usersRepository, UsersRepository.class + " must not be null");
 		Assert.notNull(credentialsRepository, CredentialsRepository.class + " must not be null");
 		Assert.notNull(passwordEncoder, PasswordEncoder.class + " must not be null");
-		Assert.notNull(securityConfig, SecurityConfig.class + " must not be null");
+		Assert.notNull(passwordHashingService, PasswordHashingService.class + " must not be null");
+		Assert.notNull(defaultCredentialService, DefaultCredentialService.class + " must not be null");
+		Assert.notNull(transactionManager, PlatformTransactionManager.class + " must not be null");
+		Assert.notNull(validator, Validator.class + " must not be null");
+		Assert.notNull(cacheManager, CacheManager.class + " must not be null");
+		Assert.notNull(meterRegistry, MeterRegistry.class + " must not be null");
+		Assert.notNull(eventPublisher, ApplicationEventPublisher.class + " must not be null");
+		Assert.notNull(searchIndex, UserSearchIndex.class + " must not be null");
+		Assert.notNull(loginThrottle, LoginThrottle.class + " must not be null");
+		Assert.notNull(credentialOutbox, CredentialOutbox.class + " must not be null");
+		Assert.notNull(changeLog, UserChangeLog.class + " must not be null");
+		Assert.notNull(shardRouter, ShardRouter.class + " must not be null");
+		Assert.notNull(rehashWriter, ExecutorService.class + " must not be null");
+		Assert.isTrue(batchChunkSize > 0, "batch chunk size must be positive");
 
 		this.usersRepository = usersRepository;
 		this.credentialsRepository = credentialsRepository;
 		this.passwordEncoder = passwordEncoder;
-		this.securityConfig = securityConfig;
+		this.passwordHashingService = passwordHashingService;
+		this.defaultCredentialService = defaultCredentialService;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.readTemplate = new TransactionTemplate(transactionManager);
+		this.readTemplate.setReadOnly(true);
+		this.validator = validator;
+		this.batchChunkSize = batchChunkSize;
+		this.usersCache = cacheManager.getCache(CacheConfig.USERS);
+		Assert.notNull(this.usersCache, "cache " + CacheConfig.USERS + " must be configured");
+		this.meterRegistry = meterRegistry;
+		this.eventPublisher = eventPublisher;
+		this.searchIndex = searchIndex;
+		this.loginThrottle = loginThrottle;
+		this.credentialOutbox = credentialOutbox;
+		this.changeLog = changeLog;
+		this.shardRouter = shardRouter;
+		this.rehashWriter = rehashWriter;
 	}
 
-	@Transactional
 	public User createUser(@NonNull User user) {
 		Objects.requireNonNull(user);
 
-		user = this.usersRepository.save(user);
+		return timed("createUser", () -> {
+			// default password, otherwise could take it from create request from user, or ...
+			// hashed before the transaction, so no connection is held while hashing
+			var password = this.credentialOutbox.isEnabled() ? null : this.defaultCredentialService.hash();
+
+			var created = this.shardRouter.create(() -> this.transactionTemplate.execute(status -> {
+				var saved = this.usersRepository.save(user);
+				if (password == null) {
+					this.credentialOutbox.add(List.of(saved.getId()));
+				} else {
+					this.credentialsRepository.save(new UserCredential(saved.getId(), password));
+				}
+				this.eventPublisher.publishEvent(new UsersCreatedEvent(List.of(UserDto.of(saved))));
+				return saved;
+			}));
+			// the id may be cached as unknown
+			this.usersCache.evict(created.getId());
+
+			return created;
+		}, created -> SUCCESS);
+	}
+
+	/**
+	 * Creates users in chunks, each chunk is inserted with JDBC batches in its own transaction.
+	 * Invalid items are skipped, a failing chunk is reported as failed for all its items.
+	 * <code>null</code> items stand for input that could not be read.
+	 */
+	public List<BatchItemResult> createUsers(@NonNull Iterator<User> users) {
+		Objects.requireNonNull(users);
+
+		return timed("createUsers", () -> createAll(users), results -> SUCCESS);
+	}
+
+	private List<BatchItemResult> createAll(Iterator<User> users) {
+		var results = new ArrayList<BatchItemResult>();
+		var chunk = new ArrayList<User>(this.batchChunkSize);
+		var chunkIndexes = new ArrayList<Long>(this.batchChunkSize);
+		long index = 0;
+
+		while (users.hasNext()) {
+			var user = users.next();
+			if (user == null) {
+				results.add(BatchItemResult.invalid(index, "malformed item"));
+			} else {
+				var violations = this.validator.validate(user);
+				if (violations.isEmpty()) {
+					chunk.add(user);
+					chunkIndexes.add(index);
+				} else {
+					results.add(BatchItemResult.invalid(index, describe(violations)));
+				}
+			}
+			index++;
+
+			if (chunk.size() == this.batchChunkSize) {
+				results.addAll(createChunk(chunk, chunkIndexes));
+				chunk.clear();
+				chunkIndexes.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			results.addAll(createChunk(chunk, chunkIndexes));
+		}
+
+		results.sort(Comparator.comparingLong(BatchItemResult::getIndex));
+		return results;
+	}
 
-		// default password, otherwise could take it from create request from user, or ...
-		this.credentialsRepository.save(new UserCredential(user.getId(), this.passwordEncoder.encode(this.securityConfig.getDefaultPassword())));
+	private List<BatchItemResult> createChunk(List<User> chunk, List<Long> indexes) {
+		var outbox = this.credentialOutbox.isEnabled();
+		var passwords = new ArrayList<String>(chunk.size());
+		for (int i = 0; i < chunk.size() && !outbox; i++) {
+			passwords.add(this.defaultCredentialService.hash());
+		}
 
-		return user;
+		var results = new ArrayList<BatchItemResult>(chunk.size());
+		try {
+			// a chunk goes to one bucket, so it still commits in one transaction
+			var saved = this.shardRouter.create(() -> this.transactionTemplate.execute(status -> {
+				var savedUsers = this.usersRepository.saveAll(chunk);
+				if (outbox) {
+					this.credentialOutbox.add(savedUsers.stream().map(User::getId).collect(Collectors.toList()));
+				} else {
+					var credentials = new ArrayList<UserCredential>(savedUsers.size());
+					for (int i = 0; i < savedUsers.size(); i++) {
+						credentials.add(new UserCredential(savedUsers.get(i).getId(), passwords.get(i)));
+					}
+					this.credentialsRepository.saveAll(credentials);
+				}
+				this.eventPublisher.publishEvent(new UsersCreatedEvent(
+						savedUsers.stream().map(UserDto::of).collect(Collectors.toList())));
+				return savedUsers;
+			}));
+			for (int i = 0; i < saved.size(); i++) {
+				results.add(BatchItemResult.created(indexes.get(i), saved.get(i).getId()));
+				this.usersCache.evict(saved.get(i).getId());
+			}
+		} catch (DataAccessException | TransactionException e) {
+			LOG.warn("Batch of {} users failed: {}", chunk.size(), e.getMessage());
+			for (var index : indexes) {
+				results.add(BatchItemResult.failed(index, e.getMostSpecificCause().getMessage()));
+			}
+		}
+		return results;
 	}
 
-	public Optional<User> getUser(@NonNull Long userId) {
+	private static String describe(Set<ConstraintViolation<User>> violations) {
+		return violations.stream()
+				.map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+				.sorted()
+				.collect(Collectors.joining(", "));
+	}
+
+	/**
+	 * Served from the users cache, see {@link UsersRepository#findDtoById(Long)}.
+	 */
+	public Optional<UserDto> getUser(@NonNull Long userId) {
 		Objects.requireNonNull(userId);
 
-		return this.usersRepository.findById(userId);
+		return timed("getUser", () -> this.shardRouter.forUser(userId, () -> this.usersRepository.findDtoById(userId)), user -> user.isPresent() ? FOUND : NOT_FOUND);
 	}
 
 	public void removeUser(@NonNull Long userId) {
 		Objects.requireNonNull(userId);
 
-		this.usersRepository.deleteById(userId);
+		timed("removeUser", () -> delete(List.of(userId)), removed -> removed > 0 ? SUCCESS : NOT_FOUND);
+	}
+
+	/**
+	 * Removes the users and their credentials in one transaction per shard with one statement per
+	 * table. Unknown ids are ignored, only the removed users are published.
+	 *
+	 * @return the number of removed users
+	 */
+	public int removeUsers(@NonNull Collection<Long> userIds) {
+		Objects.requireNonNull(userIds);
+
+		if (userIds.isEmpty()) {
+			return 0;
+		}
+		return timed("removeUsers", () -> delete(userIds), removed -> SUCCESS);
+	}
+
+	private int delete(Collection<Long> userIds) {
+		var removed = this.shardRouter.forUsers(userIds, (shard, ids) -> this.transactionTemplate.execute(status -> {
+			var existing = this.usersRepository.findIdByIdIn(ids);
+			if (existing.isEmpty()) {
+				return 0;
+			}
+			this.credentialsRepository.deleteByUserIdIn(existing);
+			this.eventPublisher.publishEvent(new UsersRemovedEvent(existing));
+			return this.usersRepository.deleteByIdIn(existing);
+		}));
+		userIds.forEach(this.usersCache::evict);
+		return removed.stream().mapToInt(Integer::intValue).sum();
+	}
+
+	/**
+	 * Sharded, every shard reads its first <code>offset + size</code> users in id order and the
+	 * page is cut from the merged users, so deep pages get expensive. Only a sort by id is
+	 * supported then.
+	 */
+	public Page<UserDto> getUserPage(@NonNull Pageable pageable) {
+		Objects.requireNonNull(pageable);
+
+		return timed("getUserPage", () -> this.shardRouter.isSharded() ? mergePage(pageable)
+				: this.usersRepository.findDtoPage(pageable), page -> SUCCESS);
+	}
+
+	private Page<UserDto> mergePage(Pageable pageable) {
+		var sort = pageable.getSort().isSorted() ? pageable.getSort() : Sort.by("id");
+		if (sort.stream().anyMatch(order -> !"id".equals(order.getProperty()))) {
+			throw new BadRequestException("Sharded users can only be sorted by id");
+		}
+		Comparator<UserDto> byId = Comparator.comparing(UserDto::getId);
+		var order = sort.getOrderFor("id").isAscending() ? byId : byId.reversed();
+
+		var first = PageRequest.of(0, Math.toIntExact(pageable.getOffset() + pageable.getPageSize()), sort);
+		var pages = this.shardRouter.fanOut(shard -> this.usersRepository.findDtoPage(first));
+
+		var merged = merge(pages.stream().map(Page::getContent), order);
+		long total = pages.stream().mapToLong(Page::getTotalElements).sum();
+		var content = merged.stream().skip(pageable.getOffset()).limit(pageable.getPageSize()).collect(Collectors.toList());
+		return new PageImpl<>(content, pageable, total);
 	}
 
-	public Page<User> getUserPage(@NonNull Pageable pageable) {
+	/**
+	 * Users of all shards in the given id order. A user being moved to another shard is kept once.
+	 */
+	private static List<UserDto> merge(Stream<List<UserDto>> shards, Comparator<UserDto> order) {
+		var merged = new ArrayList<UserDto>();
+		shards.forEach(merged::addAll);
+		merged.sort(order);
+		var distinct = new ArrayList<UserDto>(merged.size());
+		for (var user : merged) {
+			if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).getId().equals(user.getId())) {
+				distinct.add(user);
+			}
+		}
+		return distinct;
+	}
+
+	/**
+	 * Case-insensitive prefix search over the words of user names, served from the
+	 * {@link UserSearchIndex}.
+	 */
+	public Slice<UserDto> searchUsers(@NonNull String query, @NonNull Pageable pageable) {
+		Objects.requireNonNull(query);
 		Objects.requireNonNull(pageable);
 
-		return this.usersRepository.findAll(pageable);
+		return timed("searchUsers", () -> this.searchIndex.search(query, pageable),
+				slice -> slice.hasContent() ? FOUND : NOT_FOUND);
+	}
+
+	/**
+	 * Keyset pagination, reads the next <code>size</code> users with an id greater than
+	 * <code>afterId</code>. Cost does not grow with the position in the table.
+	 */
+	public Slice<UserDto> getUserSlice(long afterId, int size) {
+
+		return timed("getUserSlice", () -> this.shardRouter.isSharded() ? mergeSlice(afterId, size)
+				: this.usersRepository.findDtoByIdGreaterThan(afterId, PageRequest.ofSize(size)), slice -> SUCCESS);
+	}
+
+	private Slice<UserDto> mergeSlice(long afterId, int size) {
+		var pageable = PageRequest.ofSize(size);
+		var slices = this.shardRouter.fanOut(shard -> this.usersRepository.findDtoByIdGreaterThan(afterId, pageable));
+
+		var merged = merge(slices.stream().map(Slice::getContent), Comparator.comparing(UserDto::getId));
+		boolean hasNext = merged.size() > size || slices.stream().anyMatch(Slice::hasNext);
+		return new SliceImpl<>(merged.subList(0, Math.min(size, merged.size())), pageable, hasNext);
+	}
+
+	/**
+	 * Passes every user in id order to the consumer with constant memory. A single database is
+	 * read from a forward-only cursor. Sharded, every shard is read in keyset chunks, the next
+	 * chunks of all shards in parallel, and the users are merged by id.
+	 */
+	public void exportUsers(@NonNull Consumer<UserDto> consumer) {
+		Objects.requireNonNull(consumer);
+
+		timed("exportUsers", () -> {
+			if (this.shardRouter.isSharded()) {
+				exportMerged(consumer);
+			} else {
+				this.readTemplate.executeWithoutResult(status -> {
+					try (var users = this.usersRepository.streamAll()) {
+						users.forEach(consumer);
+					}
+				});
+			}
+			return consumer;
+		}, exported -> SUCCESS);
+	}
+
+	private void exportMerged(Consumer<UserDto> consumer) {
+		int shardCount = this.shardRouter.getShardCount();
+		var buffers = new ArrayList<ArrayDeque<UserDto>>(shardCount);
+		var after = new long[shardCount];
+		var exhausted = new boolean[shardCount];
+		for (int shard = 0; shard < shardCount; shard++) {
+			buffers.add(new ArrayDeque<>());
+			after[shard] = Long.MIN_VALUE;
+		}
+		long last = Long.MIN_VALUE;
+		while (true) {
+			var empty = new ArrayList<Integer>();
+			for (int shard = 0; shard < shardCount; shard++) {
+				if (buffers.get(shard).isEmpty() && !exhausted[shard]) {
+					empty.add(shard);
+				}
+			}
+			if (!empty.isEmpty()) {
+				Map<Integer, Slice<UserDto>> chunks = this.shardRouter.fanOut(empty,
+						shard -> this.usersRepository.findDtoByIdGreaterThan(after[shard], PageRequest.ofSize(EXPORT_CHUNK_SIZE)));
+				chunks.forEach((shard, chunk) -> {
+					buffers.get(shard).addAll(chunk.getContent());
+					exhausted[shard] = !chunk.hasNext();
+					if (chunk.hasContent()) {
+						after[shard] = chunk.getContent().get(chunk.getNumberOfElements() - 1).getId();
+					}
+				});
+			}
+			// the lowest head of all shards is next
+			ArrayDeque<UserDto> next = null;
+			for (var buffer : buffers) {
+				if (!buffer.isEmpty() && (next == null || buffer.peek().getId() < next.peek().getId())) {
+					next = buffer;
+				}
+			}
+			if (next == null) {
+				return;
+			}
+			var user = next.poll();
+			// a user being moved to another shard is read from both
+			if (user.getId() > last) {
+				consumer.accept(user);
+				last = user.getId();
+			}
+		}
+	}
+
+	/**
+	 * Seqs of the last committed change per shard. An export started after reading them contains
+	 * every change up to them, changes after them may be contained as well.
+	 */
+	public List<Long> getChangeSeqs() {
+
+		return timed("getChangeSeq", this.changeLog::getHeadSeqs, seqs -> SUCCESS);
 	}
 
-	public boolean login(@NonNull Login login) {
+	/**
+	 * Long poll of the {@link UserChangeLog} of a shard, recorded on completion.
+	 */
+	public CompletableFuture<ChangePage> getChanges(int shard, long since, int limit, @NonNull Duration wait) {
+		Objects.requireNonNull(wait);
+
+		var sample = Timer.start(this.meterRegistry);
+		CompletableFuture<ChangePage> result;
+		try {
+			result = this.changeLog.poll(shard, since, limit, wait);
+		} catch (RuntimeException e) {
+			sample.stop(timer("getChanges", ERROR));
+			throw e;
+		}
+		return result.whenComplete((page, failure) -> sample.stop(timer("getChanges",
+				failure != null ? ERROR : page.getChanges().isEmpty() ? NOT_FOUND : FOUND)));
+	}
+
+	/**
+	 * Verifies the login on the hashing executor and returns the user on success. User and
+	 * password hash are loaded with one query, credentials still in the outbox are looked up in the
+	 * same read-only transaction. The returned future fails with
+	 * {@link com.stlo.api.exception.ServiceUnavailableException} if the executor is saturated.
+	 * Outdated hashes are rehashed in the background after a successful login.
+	 *
+	 * @param clientAddress address of the client for the {@link LoginThrottle}, may be <code>null</code>
+	 * @throws com.stlo.api.exception.TooManyRequestsException if the attempt is throttled, before
+	 * anything is read or hashed
+	 */
+	public CompletableFuture<Optional<UserDto>> login(@NonNull Login login, String clientAddress) {
 		Objects.requireNonNull(login);
 
-		return this.credentialsRepository.findByUserId(login.getUserId()).map(credentials -> {
-			return this.passwordEncoder.matches(login.getPassword(), credentials.getPassword());
-		}).orElse(false);
+		var sample = Timer.start(this.meterRegistry);
+		CompletableFuture<Optional<UserDto>> result;
+		try {
+			this.loginThrottle.acquire(login.getUserId(), clientAddress);
+		} catch (TooManyRequestsException e) {
+			sample.stop(timer("login", THROTTLED));
+			throw e;
+		}
+		try {
+			result = this.shardRouter.forUser(login.getUserId(),
+					() -> this.readTemplate.execute(status -> verify(login)));
+		} catch (RuntimeException e) {
+			sample.stop(timer("login", ERROR));
+			throw e;
+		}
+		// recorded on completion, so the time includes waiting for and running the hash
+		return result.whenComplete((user, failure) -> {
+			var outcome = loginOutcome(user, failure);
+			if (AUTH_OK.equals(outcome)) {
+				this.loginThrottle.onSuccess(login.getUserId());
+			} else if (AUTH_FAIL.equals(outcome)) {
+				this.loginThrottle.onFailure(login.getUserId());
+			}
+			sample.stop(timer("login", outcome));
+		});
+	}
+
+	private CompletableFuture<Optional<UserDto>> verify(Login login) {
+		return this.credentialsRepository.findLoginByUserId(login.getUserId()).map(candidate -> {
+			return this.passwordHashingService.matches(login.getPassword(), candidate.getPassword())
+					.thenApply(matched -> {
+						if (!matched) {
+							return Optional.<UserDto>empty();
+						}
+						upgradePassword(login, candidate.getPassword());
+						return Optional.of(candidate.getUser());
+					});
+		}).orElseGet(() -> verifyPending(login));
+	}
+
+	/**
+	 * A credential still in the outbox will hold the default password, the login is verified
+	 * against it as if the credential was written.
+	 */
+	private CompletableFuture<Optional<UserDto>> verifyPending(Login login) {
+		if (!this.credentialOutbox.isPending(login.getUserId())) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		var user = this.usersRepository.findDtoById(login.getUserId());
+		return this.passwordHashingService.matches(login.getPassword(), SecurityConfig.DEFAULT_PASSWORD_MARKER)
+				.thenApply(matched -> matched ? user : Optional.<UserDto>empty());
+	}
+
+	private static String loginOutcome(Optional<UserDto> user, Throwable failure) {
+		if (failure == null) {
+			return user.isPresent() ? AUTH_OK : AUTH_FAIL;
+		}
+		var cause = failure.getCause() != null ? failure.getCause() : failure;
+		return cause instanceof ServiceUnavailableException ? REJECTED : ERROR;
+	}
+
+	private <T> T timed(String method, Supplier<T> operation, Function<T, String> outcome) {
+		var sample = Timer.start(this.meterRegistry);
+		var result = ERROR;
+		try {
+			var value = operation.get();
+			result = outcome.apply(value);
+			return value;
+		} finally {
+			sample.stop(timer(method, result));
+		}
+	}
+
+	private Timer timer(String method, String outcome) {
+		return Timer.builder(METRIC)
+				.description("Time spent in users service operations")
+				.tags("method", method, "outcome", outcome)
+				.register(this.meterRegistry);
+	}
+
+	private void upgradePassword(Login login, String currentHash) {
+		if (!this.passwordEncoder.upgradeEncoding(currentHash)) {
+			return;
+		}
+		// fire and forget, the login response does not wait for the new hash. A rehash rejected by a
+		// full queue is retried on the next login
+		this.passwordHashingService.encode(login.getPassword())
+				.thenAcceptAsync(hash -> this.shardRouter.forUser(login.getUserId(),
+						() -> this.credentialsRepository.updatePassword(login.getUserId(), currentHash, hash)), this.rehashWriter)
+				.exceptionally(e -> {
+					LOG.warn("Rehash of password for user {} failed: {}", login.getUserId(), e.getMessage());
+					return null;
+				});
 	}
 }
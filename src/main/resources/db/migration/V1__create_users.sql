@@ -0,0 +1,18 @@
+-- ids come from pooled sequences, Hibernate reserves 50 ids per call (allocationSize)
+CREATE SEQUENCE users_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE credentials_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE users (
+  id BIGINT NOT NULL,
+  name VARCHAR(255) NOT NULL,
+  CONSTRAINT pk_users PRIMARY KEY (id)
+);
+
+CREATE TABLE credentials (
+  id BIGINT NOT NULL,
+  user_id BIGINT NOT NULL,
+  password VARCHAR(255) NOT NULL,
+  CONSTRAINT pk_credentials PRIMARY KEY (id),
+  -- backs the login lookup by user id
+  CONSTRAINT uk_credentials_user_id UNIQUE (user_id)
+);
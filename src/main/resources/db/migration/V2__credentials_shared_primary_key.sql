@@ -0,0 +1,8 @@
+-- credentials share the primary key of their user: one index less per insert and the
+-- login lookup reads the primary key. Ids of the credentials are not referenced anywhere
+ALTER TABLE credentials DROP CONSTRAINT pk_credentials;
+ALTER TABLE credentials DROP CONSTRAINT uk_credentials_user_id;
+ALTER TABLE credentials DROP COLUMN id;
+ALTER TABLE credentials ADD CONSTRAINT pk_credentials PRIMARY KEY (user_id);
+
+DROP SEQUENCE credentials_seq;
@@ -0,0 +1,2 @@
+-- optimistic lock version, also the ETag of a user
+ALTER TABLE users ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
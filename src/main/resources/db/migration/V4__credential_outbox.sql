@@ -0,0 +1,8 @@
+-- credentials still to be written by the background writer, committed with their user.
+-- Removing a user removes its pending credential
+CREATE TABLE credential_outbox (
+  user_id BIGINT NOT NULL,
+  created_at TIMESTAMP NOT NULL,
+  CONSTRAINT pk_credential_outbox PRIMARY KEY (user_id),
+  CONSTRAINT fk_credential_outbox_user FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+);
@@ -0,0 +1,21 @@
+-- change log of created and removed users, seq is the position of a change in the log
+CREATE TABLE user_changes (
+  seq BIGINT NOT NULL,
+  type VARCHAR(16) NOT NULL,
+  user_id BIGINT NOT NULL,
+  name VARCHAR(255),
+  created_at TIMESTAMP NOT NULL,
+  CONSTRAINT pk_user_changes PRIMARY KEY (seq)
+);
+-- backs compaction of the created entries of removed users
+CREATE INDEX ix_user_changes_user_id ON user_changes (user_id);
+
+-- one row: the last assigned seq and the last seq removed by retention. Writers lock the
+-- row to take seqs, so changes commit in seq order
+CREATE TABLE user_changes_head (
+  id INT NOT NULL,
+  seq BIGINT NOT NULL,
+  truncated_seq BIGINT NOT NULL,
+  CONSTRAINT pk_user_changes_head PRIMARY KEY (id)
+);
+INSERT INTO user_changes_head (id, seq, truncated_seq) VALUES (1, 0, 0);
@@ -0,0 +1,7 @@
+-- shard of each bucket of user ids (the low 10 bits of an id) with sharded storage. Only the
+-- table of the first shard is used, it is filled on the first sharded start
+CREATE TABLE shard_buckets (
+  bucket INT NOT NULL,
+  shard INT NOT NULL,
+  CONSTRAINT pk_shard_buckets PRIMARY KEY (bucket)
+);
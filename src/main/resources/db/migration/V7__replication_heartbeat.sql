@@ -0,0 +1,8 @@
+-- one row, written on the primary by every instance with read replicas. Its age on a replica is
+-- the replication lag
+CREATE TABLE replication_heartbeat (
+  id INT NOT NULL,
+  beat_at BIGINT NOT NULL,
+  CONSTRAINT pk_replication_heartbeat PRIMARY KEY (id)
+);
+INSERT INTO replication_heartbeat (id, beat_at) VALUES (1, 0);
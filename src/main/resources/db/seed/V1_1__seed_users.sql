@@ -0,0 +1,7 @@
+INSERT INTO USERS (id, name) VALUES
+  (1, 'Jon'),
+  (2, 'Tanya'),
+  (3, 'Eric');
+  
+-- pooled sequence hands out the 50 ids below its value, continue after the imported rows
+ALTER SEQUENCE USERS_SEQ RESTART WITH (SELECT MAX(ID) FROM USERS) + 50;
@@ -0,0 +1,89 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.stlo.api.ApiUsersApplication;
+import com.stlo.api.model.db.User;
+import com.stlo.api.service.UsersService;
+
+/**
+ * Creates per second from concurrent threads without and with the change log. Every create with
+ * the log waits for the head row, so the log turns concurrent creates into a queue. Credentials
+ * go to the outbox and are never written, so hashing does not hide the difference. Run with
+ * <code>mvn test -Pbenchmark -Dtest=ChangeLogBenchmarkTest</code>, the threads are set with
+ * <code>-Dbenchmark.threads=16</code>.
+ */
+@Tag("benchmark")
+class ChangeLogBenchmarkTest {
+
+	private static final int THREADS = Integer.getInteger("benchmark.threads", 8);
+	private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	@Test
+	@DisplayName("the change log should cost concurrent creates the wait for the head row")
+	void compareCreates() throws Exception {
+		double without;
+		try (var context = start(false)) {
+			without = throughput(context.getBean(UsersService.class));
+		}
+		double with;
+		try (var context = start(true)) {
+			with = throughput(context.getBean(UsersService.class));
+		}
+
+		System.out.printf("%d threads: %,.0f creates/s without change log, %,.0f creates/s with change log (%.0f %%)%n",
+				THREADS, without, with, 100 * with / without);
+		assertThat(without).isPositive();
+		assertThat(with).isPositive();
+	}
+
+	private static ConfigurableApplicationContext start(boolean changeLog) {
+		var args = new ArrayList<String>();
+		args.add("--spring.datasource.url=jdbc:h2:mem:change-log-benchmark-" + changeLog);
+		args.add("--users.changes.enabled=" + changeLog);
+		args.add("--users.credentials.write-mode=outbox");
+		args.add("--users.credentials.outbox.initial-delay=PT1H");
+		args.add("--users.search.enabled=false");
+		args.add("--server.port=0");
+		args.add("--spring.main.banner-mode=off");
+		args.add("--logging.level.root=WARN");
+		return SpringApplication.run(ApiUsersApplication.class, args.toArray(String[]::new));
+	}
+
+	private static double throughput(UsersService usersService) throws InterruptedException {
+		var executor = Executors.newFixedThreadPool(THREADS);
+		var done = new CountDownLatch(THREADS);
+		var creates = new LongAdder();
+		long start = System.nanoTime();
+		long deadline = start + MEASURE_NANOS;
+		for (int thread = 0; thread < THREADS; thread++) {
+			executor.execute(() -> {
+				try {
+					while (System.nanoTime() < deadline) {
+						var user = new User();
+						user.setName("user");
+						usersService.createUser(user);
+						creates.increment();
+					}
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		executor.shutdown();
+		return creates.sum() / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,107 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.stlo.api.model.db.User;
+import com.stlo.api.monitoring.QueryStatistics;
+import com.stlo.api.repository.CredentialsRepository;
+import com.stlo.api.repository.UsersRepository;
+import com.stlo.api.service.UsersService;
+
+/**
+ * Statements per <code>POST /login</code>: the former path loaded the credential and then the
+ * user, the joined query loads both at once. Statements are counted per scope, background jobs
+ * are not counted. Run with <code>mvn test -Pbenchmark -Dtest=LoginQueryBenchmarkTest</code>.
+ */
+@Tag("benchmark")
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:login-query-benchmark",
+		"users.query-stats.enabled=true",
+		"security.login.throttle.enabled=false" })
+class LoginQueryBenchmarkTest {
+
+	private static final int LOGINS = 100;
+	private static final String SEPARATE = "separate lookups";
+	private static final String JOINED = "POST /api/rest/users/login";
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	QueryStatistics queryStatistics;
+
+	@Autowired
+	UsersService usersService;
+
+	@Autowired
+	UsersRepository usersRepository;
+
+	@Autowired
+	CredentialsRepository credentialsRepository;
+
+	private final List<Long> userIds = new ArrayList<>();
+
+	@BeforeAll
+	void seed() {
+		for (int i = 0; i < LOGINS; i++) {
+			var user = new User();
+			user.setName("user-" + i);
+			this.userIds.add(this.usersService.createUser(user).getId());
+		}
+	}
+
+	@Test
+	@DisplayName("a login should need one statement with the joined query where the separate lookups need two")
+	void compareStatementsPerLogin() throws Exception {
+		this.queryStatistics.reset();
+
+		for (var userId : this.userIds) {
+			// the former path: credential by its key, the user id, then the user
+			try (var scope = this.queryStatistics.openScope(SEPARATE)) {
+				assertThat(this.credentialsRepository.findById(userId)).isPresent();
+				assertThat(this.usersRepository.findById(userId)).isPresent();
+			}
+		}
+
+		for (var userId : this.userIds) {
+			var result = this.mockMvc.perform(post("/api/rest/users/login")
+					.contentType(MediaType.APPLICATION_JSON)
+					.content("{\"userId\":" + userId + ",\"password\":\"1234567890\"}"))
+					.andReturn();
+			this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+		}
+
+		var separate = this.queryStatistics.getEndpoints().get(SEPARATE);
+		var joined = this.queryStatistics.getEndpoints().get(JOINED);
+		System.out.printf("%d logins: separate lookups %.2f statements/login, joined query %.2f statements/login%n",
+				LOGINS, perLogin(separate), perLogin(joined));
+
+		assertThat(separate.getRequests()).isEqualTo(LOGINS);
+		assertThat(joined.getRequests()).isEqualTo(LOGINS);
+		assertThat(perLogin(separate)).isEqualTo(2);
+		assertThat(perLogin(joined)).isEqualTo(1);
+	}
+
+	private static double perLogin(QueryStatistics.EndpointStatistics statistics) {
+		return statistics.getStatements() / (double) statistics.getRequests();
+	}
+}
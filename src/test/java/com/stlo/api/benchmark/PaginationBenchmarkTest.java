@@ -0,0 +1,76 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.stlo.api.service.UsersService;
+
+/**
+ * Compares latency of a deep page between OFFSET pagination and keyset pagination. Run with
+ * <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:pagination-benchmark")
+class PaginationBenchmarkTest {
+
+	private static final int PAGE = 10_000;
+	private static final int SIZE = 20;
+	private static final int ROWS = (PAGE + 1) * SIZE;
+	private static final int WARMUP = 20;
+	private static final int RUNS = 50;
+
+	@Autowired
+	UsersService usersService;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@BeforeAll
+	void seed() {
+		this.jdbcTemplate.update("INSERT INTO users (id, name) SELECT X + 100, 'user-' || X FROM SYSTEM_RANGE(1, ?)", ROWS);
+	}
+
+	@Test
+	@DisplayName("keyset pagination should be faster than offset pagination at page 10,000")
+	void comparePage10000() {
+		var pageable = PageRequest.of(PAGE, SIZE);
+		var offsetPage = this.usersService.getUserPage(pageable);
+		long afterId = this.usersService.getUserPage(PageRequest.of(PAGE - 1, SIZE)).getContent().get(SIZE - 1).getId();
+		var keysetSlice = this.usersService.getUserSlice(afterId, SIZE);
+		assertThat(keysetSlice.getContent()).usingRecursiveFieldByFieldElementComparator()
+				.isEqualTo(offsetPage.getContent());
+
+		long offsetNanos = median(() -> this.usersService.getUserPage(pageable));
+		long keysetNanos = median(() -> this.usersService.getUserSlice(afterId, SIZE));
+
+		System.out.printf("Page %d of %d rows: offset %.3f ms, keyset %.3f ms (median of %d)%n",
+				PAGE, ROWS, offsetNanos / 1e6, keysetNanos / 1e6, RUNS);
+		assertThat(keysetNanos).isLessThan(offsetNanos);
+	}
+
+	private static long median(Runnable call) {
+		for (int i = 0; i < WARMUP; i++) {
+			call.run();
+		}
+		var samples = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			call.run();
+			samples[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(samples);
+		return samples[RUNS / 2];
+	}
+}
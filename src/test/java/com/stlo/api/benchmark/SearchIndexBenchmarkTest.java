@@ -0,0 +1,91 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.stlo.api.model.UserDto;
+import com.stlo.api.repository.UsersRepository;
+import com.stlo.api.service.ShardRouter;
+import com.stlo.api.service.UserSearchIndex;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Heap footprint and query latency of the search index for generated two word names. Run with
+ * <code>mvn test -Pbenchmark -Dtest=SearchIndexBenchmarkTest</code>, the size is set with
+ * <code>-Dbenchmark.users=1000000</code>.
+ */
+@Tag("benchmark")
+class SearchIndexBenchmarkTest {
+
+	private static final int USERS = Integer.getInteger("benchmark.users", 1_000_000);
+	private static final String[] QUERIES = { "a", "jo", "mar", "smith", "jon sm" };
+	private static final int WARMUP = 20;
+	private static final int RUNS = 200;
+
+	@Test
+	@DisplayName("search index footprint and prefix query latency")
+	void footprintAndLatency() {
+		var random = new Random(42);
+		var usersRepository = mock(UsersRepository.class);
+		when(usersRepository.streamAll()).thenReturn(LongStream.rangeClosed(1, USERS)
+				.mapToObj(id -> new UserDto(id, word(random) + " " + word(random))));
+
+		long before = usedHeap();
+		var index = new UserSearchIndex(usersRepository, mock(PlatformTransactionManager.class), new SimpleMeterRegistry(),
+				ShardRouter.single(), true);
+		long start = System.nanoTime();
+		index.afterSingletonsInstantiated();
+		long buildNanos = System.nanoTime() - start;
+		long heap = usedHeap() - before;
+
+		System.out.printf("%,d users, %,d words: built in %.1f s, heap %,d MB (estimated %,d MB), %d bytes per user%n",
+				USERS, index.getEntryCount(), buildNanos / 1e9, heap >> 20, index.getEstimatedBytes() >> 20, heap / USERS);
+
+		var page = PageRequest.of(0, 20);
+		for (var query : QUERIES) {
+			var samples = new long[RUNS];
+			for (int i = 0; i < WARMUP + RUNS; i++) {
+				long queryStart = System.nanoTime();
+				index.search(query, page);
+				if (i >= WARMUP) {
+					samples[i - WARMUP] = System.nanoTime() - queryStart;
+				}
+			}
+			Arrays.sort(samples);
+			System.out.printf("q=%-8s first page: median %.3f ms, p99 %.3f ms%n", query,
+					samples[RUNS / 2] / 1e6, samples[RUNS * 99 / 100] / 1e6);
+		}
+
+		assertThat(index.search("a", page).getContent()).hasSize(20);
+	}
+
+	private static String word(Random random) {
+		var syllables = new String[] { "jo", "an", "mar", "smi", "th", "el", "ka", "ri", "na", "to", "li", "be" };
+		var word = new StringBuilder();
+		for (int i = 0, n = 2 + random.nextInt(3); i < n; i++) {
+			word.append(syllables[random.nextInt(syllables.length)]);
+		}
+		word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+		return word.toString();
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		var runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
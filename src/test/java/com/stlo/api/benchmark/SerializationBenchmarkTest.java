@@ -0,0 +1,116 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.stlo.api.model.CompactPage;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.db.User;
+
+/**
+ * Compares payload size and allocations of a page of 20 users between the Spring {@link PageImpl}
+ * of entities and the {@link CompactPage} of projections in JSON, Smile and CBOR. Run with
+ * <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class SerializationBenchmarkTest {
+
+	private static final int SIZE = 20;
+	private static final int WARMUP = 20_000;
+	private static final int RUNS = 100_000;
+
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	@Test
+	@DisplayName("compact page should be smaller and allocate less than the Spring page")
+	void comparePageEncodings() throws Exception {
+		var users = new ArrayList<User>();
+		var dtos = new ArrayList<UserDto>();
+		for (long id = 1; id <= SIZE; id++) {
+			users.add(new User(100_000 + id, "Firstname Lastname " + id));
+			dtos.add(new UserDto(100_000 + id, "Firstname Lastname " + id, 0L));
+		}
+		var pageable = PageRequest.of(500, SIZE);
+		var springPage = new PageImpl<>(users, pageable, 1_000_000);
+		var compactPage = CompactPage.of(new PageImpl<>(dtos, pageable, 1_000_000));
+
+		var json = Jackson2ObjectMapperBuilder.json().build();
+		var smile = Jackson2ObjectMapperBuilder.json().factory(new SmileFactory()).build();
+		var cbor = Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+
+		var results = List.of(
+				measure("Page<User> json", json, springPage),
+				measure("CompactPage<UserDto> json", json, compactPage),
+				measure("CompactPage<UserDto> smile", smile, compactPage),
+				measure("CompactPage<UserDto> cbor", cbor, compactPage));
+
+		results.forEach(result -> System.out.printf("%-28s %5d bytes %6d bytes allocated %6.2f us%n",
+				result.name, result.bytes, result.allocated, result.nanos / 1e3));
+		var spring = results.get(0);
+		var compact = results.get(1);
+		assertThat(compact.bytes).isLessThan(spring.bytes);
+		assertThat(compact.allocated).isLessThan(spring.allocated);
+		assertThat(results.get(2).bytes).isLessThan(compact.bytes);
+		assertThat(results.get(3).bytes).isLessThan(compact.bytes);
+	}
+
+	private Result measure(String name, ObjectMapper mapper, Object page) throws Exception {
+		var bytes = mapper.writeValueAsBytes(page).length;
+		var sink = new DiscardingOutputStream();
+		for (int i = 0; i < WARMUP; i++) {
+			mapper.writeValue(sink, page);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = this.threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			mapper.writeValue(sink, page);
+		}
+		long nanos = (System.nanoTime() - start) / RUNS;
+		long allocated = (this.threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / RUNS;
+
+		return new Result(name, bytes, allocated, nanos);
+	}
+
+	// the mapper closes its target, a null stream would fail on the second write
+	private static final class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	private static final class Result {
+
+		final String name;
+		final int bytes;
+		final long allocated;
+		final long nanos;
+
+		Result(String name, int bytes, long allocated, long nanos) {
+			this.name = name;
+			this.bytes = bytes;
+			this.allocated = allocated;
+			this.nanos = nanos;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the time from launching the JVM to the first answered request, the packaged jar against
+ * the exploded jar with the <code>startup</code> profile and an AppCDS archive. Run with
+ * <code>mvn package -DskipTests && mvn test -Pbenchmark -Dtest=StartupBenchmarkTest</code>, set the
+ * number of launches per variant with <code>-Dbenchmark.startup.runs=5</code>.
+ */
+@Tag("benchmark")
+class StartupBenchmarkTest {
+
+	private static final Path JAR = Path.of("target", "api-users-0.0.1-SNAPSHOT.jar").toAbsolutePath();
+	private static final Path WORK = Path.of("target", "startup").toAbsolutePath();
+	private static final Path EXPLODED = WORK.resolve("app");
+	private static final Path ARCHIVE = WORK.resolve("app.jsa");
+	private static final String CLASSES_JAR = "classes.jar";
+	private static final String MAIN_CLASS = "com.stlo.api.ApiUsersApplication";
+	private static final int RUNS = Integer.getInteger("benchmark.startup.runs", 5);
+	private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+	private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+	@Test
+	@DisplayName("startup profile with CDS archive should answer the first request sooner than the packaged jar")
+	void compareTimeToFirstRequest() throws Exception {
+		assumeTrue(Files.exists(JAR), "run mvn package first");
+		explode();
+		var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		var classpath = classpath();
+
+		// creates the database, so no variant pays for the migrations
+		launch(List.of(java, "-jar", JAR.toString()), "prod");
+		// training run, the archive is written when the JVM exits
+		Files.deleteIfExists(ARCHIVE);
+		launch(List.of(java, "-XX:ArchiveClassesAtExit=" + ARCHIVE, "-Xlog:cds=off", "-cp", classpath, MAIN_CLASS), "prod,startup");
+		assertThat(ARCHIVE).exists();
+
+		var variants = new LinkedHashMap<String, List<String>>();
+		variants.put("packaged jar", List.of(java, "-jar", JAR.toString(), "prod"));
+		variants.put("exploded", List.of(java, "-cp", classpath, MAIN_CLASS, "prod"));
+		variants.put("exploded, startup", List.of(java, "-cp", classpath, MAIN_CLASS, "prod,startup"));
+		variants.put("exploded, startup, CDS", List.of(java, "-XX:SharedArchiveFile=" + ARCHIVE, "-Xlog:cds=off",
+				"-cp", classpath, MAIN_CLASS, "prod,startup"));
+
+		var medians = new LinkedHashMap<String, Long>();
+		for (var variant : variants.entrySet()) {
+			var command = variant.getValue();
+			var profiles = command.get(command.size() - 1);
+			var samples = new long[RUNS];
+			for (int i = 0; i < RUNS; i++) {
+				samples[i] = launch(command.subList(0, command.size() - 1), profiles);
+			}
+			Arrays.sort(samples);
+			medians.put(variant.getKey(), samples[RUNS / 2]);
+		}
+
+		medians.forEach((variant, millis) -> System.out.printf("%-24s %6d ms to first request (median of %d)%n", variant, millis, RUNS));
+		assertThat(medians.get("exploded, startup, CDS")).isLessThan(medians.get("packaged jar"));
+	}
+
+	/**
+	 * @return milliseconds from process start to the first answered request
+	 */
+	private long launch(List<String> command, String profiles) throws Exception {
+		int port;
+		try (var socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		var args = new ArrayList<>(command);
+		args.add("--spring.profiles.active=" + profiles);
+		args.add("--users.data-dir=" + WORK.resolve("data"));
+		args.add("--server.port=" + port);
+		args.add("--logging.level.root=WARN");
+
+		var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/rest/users?size=1")).build();
+		long start = System.nanoTime();
+		var process = new ProcessBuilder(args).directory(EXPLODED.toFile())
+				.redirectErrorStream(true)
+				.redirectOutput(WORK.resolve("last-run.log").toFile())
+				.start();
+		try {
+			while (true) {
+				assertThat(process.isAlive()).as("application exited, see " + WORK.resolve("last-run.log")).isTrue();
+				assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(TIMEOUT);
+				try {
+					var response = this.client.send(request, HttpResponse.BodyHandlers.discarding());
+					if (response.statusCode() == 200) {
+						return (System.nanoTime() - start) / 1_000_000;
+					}
+				} catch (ConnectException e) {
+					// not listening yet
+				}
+				Thread.sleep(10);
+			}
+		} finally {
+			// SIGTERM, the JVM exits normally and writes a requested archive
+			process.destroy();
+			process.waitFor();
+		}
+	}
+
+	private static void explode() throws IOException {
+		if (Files.exists(EXPLODED) && Files.getLastModifiedTime(EXPLODED).compareTo(Files.getLastModifiedTime(JAR)) > 0) {
+			return;
+		}
+		try (var jar = new ZipFile(JAR.toFile())) {
+			var entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				var entry = entries.nextElement();
+				var target = EXPLODED.resolve(entry.getName());
+				if (entry.isDirectory()) {
+					Files.createDirectories(target);
+					continue;
+				}
+				Files.createDirectories(target.getParent());
+				try (var in = jar.getInputStream(entry)) {
+					Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+		// CDS refuses directories on the class path, classpath scanning needs the directory entries
+		var classes = EXPLODED.resolve("BOOT-INF/classes");
+		try (var out = new ZipOutputStream(Files.newOutputStream(EXPLODED.resolve(CLASSES_JAR)));
+				Stream<Path> files = Files.walk(classes)) {
+			for (var file : (Iterable<Path>) files.filter(file -> !file.equals(classes))::iterator) {
+				var name = classes.relativize(file).toString().replace(File.separatorChar, '/');
+				if (Files.isDirectory(file)) {
+					out.putNextEntry(new ZipEntry(name + '/'));
+				} else {
+					out.putNextEntry(new ZipEntry(name));
+					Files.copy(file, out);
+				}
+				out.closeEntry();
+			}
+		}
+		Files.setLastModifiedTime(EXPLODED, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Plain class path of the exploded jar in a fixed order, CDS only archives classes of the
+	 * application class loader and needs the same class path on every run.
+	 */
+	private static String classpath() throws IOException {
+		try (Stream<Path> libs = Files.list(EXPLODED.resolve("BOOT-INF/lib"))) {
+			var jars = libs.map(Path::toString).sorted().collect(Collectors.toList());
+			jars.add(0, EXPLODED.resolve(CLASSES_JAR).toString());
+			return String.join(File.pathSeparator, jars);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+}
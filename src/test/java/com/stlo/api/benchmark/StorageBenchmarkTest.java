@@ -0,0 +1,116 @@
+package com.stlo.api.benchmark;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.stlo.api.ApiUsersApplication;
+import com.stlo.api.repository.CredentialsRepository;
+import com.stlo.api.service.UsersService;
+
+/**
+ * Startup time and read throughput of the prod profile with a large file database in
+ * <code>target/storage-benchmark</code>. Run with <code>mvn test -Pbenchmark -Dtest=StorageBenchmarkTest</code>,
+ * the size is set with <code>-Dbenchmark.rows=10000000</code>.
+ */
+@Tag("benchmark")
+class StorageBenchmarkTest {
+
+	private static final int ROWS = Integer.getInteger("benchmark.rows", 1_000_000);
+	private static final int INSERT_CHUNK = 500_000;
+	private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	private final Path dataDir = Path.of("target", "storage-benchmark", String.valueOf(System.currentTimeMillis()))
+			.toAbsolutePath();
+
+	@Test
+	@DisplayName("prod profile should start on a large database and serve reads from the indexes")
+	void largeDatabase() {
+		long start = System.nanoTime();
+		try (var context = start()) {
+			var emptyStartup = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			seed(context);
+			var seedNanos = System.nanoTime() - start;
+			System.out.printf("Empty database: startup with migration %.0f ms%n", millis(emptyStartup));
+			System.out.printf("Seed %,d users with credentials: %.1f s, %,.0f rows/s%n", ROWS, seedNanos / 1e9,
+					ROWS / (seedNanos / 1e9));
+		}
+
+		start = System.nanoTime();
+		try (var context = start()) {
+			System.out.printf("%,d users: startup with migrations validated %.0f ms%n", ROWS, millis(System.nanoTime() - start));
+
+			var credentialsRepository = context.getBean(CredentialsRepository.class);
+			var usersService = context.getBean(UsersService.class);
+
+			var logins = throughput(id -> assertThat(credentialsRepository.findLoginByUserId(id)).isPresent());
+			var slices = throughput(id -> assertThat(usersService.getUserSlice(id, 20).getContent()).isNotEmpty());
+			System.out.printf("Login lookup by user id: %,.0f ops/s%n", logins);
+			System.out.printf("Keyset page of 20 at a random position: %,.0f ops/s%n", slices);
+		}
+
+		start = System.nanoTime();
+		try (var context = start("spring.flyway.enabled=false", "spring.jpa.hibernate.ddl-auto=update")) {
+			System.out.printf("%,d users: startup with ddl-auto=update instead %.0f ms%n", ROWS, millis(System.nanoTime() - start));
+		}
+	}
+
+	private ConfigurableApplicationContext start(String... properties) {
+		var args = new ArrayList<String>(List.of(
+				"--spring.profiles.active=prod",
+				"--users.data-dir=" + this.dataDir,
+				"--server.port=0",
+				"--spring.main.banner-mode=off",
+				"--logging.level.root=WARN"));
+		for (var property : properties) {
+			args.add("--" + property);
+		}
+		return SpringApplication.run(ApiUsersApplication.class, args.toArray(String[]::new));
+	}
+
+	private static void seed(ConfigurableApplicationContext context) {
+		var jdbcTemplate = context.getBean(JdbcTemplate.class);
+		var transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+		for (long chunk = 1; chunk <= ROWS; chunk += INSERT_CHUNK) {
+			long from = chunk;
+			long to = Math.min(ROWS, chunk + INSERT_CHUNK - 1);
+			transactionTemplate.executeWithoutResult(status -> {
+				jdbcTemplate.update("INSERT INTO users (id, name) SELECT X, 'user-' || X FROM SYSTEM_RANGE(?, ?)", from, to);
+				jdbcTemplate.update("INSERT INTO credentials (user_id, password) SELECT X, '{default}' FROM SYSTEM_RANGE(?, ?)", from, to);
+			});
+		}
+		jdbcTemplate.execute("ALTER SEQUENCE users_seq RESTART WITH " + (ROWS + 50));
+	}
+
+	private static double throughput(LongConsumer call) {
+		long deadline = System.nanoTime() + MEASURE_NANOS;
+		long operations = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() < deadline) {
+			call.accept(ThreadLocalRandom.current().nextLong(1, ROWS - 20));
+			operations++;
+		}
+		return operations / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000d;
+	}
+}
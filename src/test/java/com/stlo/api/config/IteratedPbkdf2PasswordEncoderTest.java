@@ -0,0 +1,43 @@
+package com.stlo.api.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+class IteratedPbkdf2PasswordEncoderTest {
+
+	private final IteratedPbkdf2PasswordEncoder encoder = new IteratedPbkdf2PasswordEncoder(2000);
+
+	@Test
+	@DisplayName("#encode should store the iteration count, #matches should verify with it")
+	void testEncode() {
+
+		var hash = this.encoder.encode("secret");
+
+		assertThat(hash).startsWith("2000$");
+		assertThat(this.encoder.matches("secret", hash)).isTrue();
+		assertThat(this.encoder.matches("wrong", hash)).isFalse();
+		assertThat(this.encoder.upgradeEncoding(hash)).isFalse();
+	}
+
+	@Test
+	@DisplayName("#upgradeEncoding should report hashes of fewer iterations, #matches should still verify them")
+	void testUpgradeEncoding_fewerIterations() {
+		var hash = new IteratedPbkdf2PasswordEncoder(1000).encode("secret");
+
+		assertThat(this.encoder.matches("secret", hash)).isTrue();
+		assertThat(this.encoder.upgradeEncoding(hash)).isTrue();
+		assertThat(new IteratedPbkdf2PasswordEncoder(500).upgradeEncoding(hash)).isFalse();
+	}
+
+	@Test
+	@DisplayName("hashes without iteration count should be verified with the configured count and upgraded")
+	void testMatches_withoutIterations() {
+		var hash = new Pbkdf2PasswordEncoder("", 16, 2000, 256).encode("secret");
+
+		assertThat(this.encoder.matches("secret", hash)).isTrue();
+		assertThat(this.encoder.upgradeEncoding(hash)).isTrue();
+	}
+}
@@ -0,0 +1,67 @@
+package com.stlo.api.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.stlo.api.repository.ReplicaContext;
+
+class PrimaryStickinessFilterTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+	private final PrimaryStickinessFilter filter = new PrimaryStickinessFilter(Clock.fixed(NOW, ZoneOffset.UTC),
+			Duration.ofSeconds(5));
+
+	@Test
+	@DisplayName("#doFilter of a write should set the sticky cookie")
+	void testDoFilter_write() throws Exception {
+		var response = new MockHttpServletResponse();
+
+		this.filter.doFilter(new MockHttpServletRequest("POST", "/api/rest/users"), response, (req, res) -> {});
+
+		assertThat(response.getCookie(PrimaryStickinessFilter.COOKIE).getValue())
+				.isEqualTo(String.valueOf(NOW.plusSeconds(5).toEpochMilli()));
+	}
+
+	@Test
+	@DisplayName("#doFilter of a login should not set the sticky cookie")
+	void testDoFilter_login() throws Exception {
+		var response = new MockHttpServletResponse();
+
+		this.filter.doFilter(new MockHttpServletRequest("POST", "/api/rest/users/login"), response, (req, res) -> {});
+
+		assertThat(response.getCookie(PrimaryStickinessFilter.COOKIE)).isNull();
+	}
+
+	@Test
+	@DisplayName("#doFilter of a read with the sticky cookie should require the primary until it ends")
+	void testDoFilter_sticky() throws Exception {
+
+		assertThat(readsFromPrimary(NOW.plusSeconds(3))).isTrue();
+		assertThat(readsFromPrimary(NOW.minusSeconds(1))).isFalse();
+		// not set by a write of this service
+		assertThat(readsFromPrimary(NOW.plusSeconds(3600))).isFalse();
+		assertThat(ReplicaContext.isPrimaryRequired()).isFalse();
+	}
+
+	private boolean readsFromPrimary(Instant until) throws Exception {
+		var request = new MockHttpServletRequest("GET", "/api/rest/users/1");
+		request.setCookies(new Cookie(PrimaryStickinessFilter.COOKIE, String.valueOf(until.toEpochMilli())));
+		var primary = new AtomicBoolean();
+
+		this.filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> primary.set(ReplicaContext.isPrimaryRequired()));
+		return primary.get();
+	}
+}
@@ -3,19 +3,32 @@ package com.stlo.api.controller;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -26,6 +39,8 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
@@ -33,8 +48,18 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.stlo.api.exception.GoneException;
+import com.stlo.api.exception.ServiceUnavailableException;
+import com.stlo.api.exception.TooManyRequestsException;
+import com.stlo.api.model.BatchItemResult;
+import com.stlo.api.model.ChangePage;
+import com.stlo.api.model.CursorPage;
 import com.stlo.api.model.Login;
+import com.stlo.api.model.UserChangeDto;
+import com.stlo.api.model.UserDto;
 import com.stlo.api.model.db.User;
+import com.stlo.api.model.db.UserChange;
 import com.stlo.api.service.UsersService;
 
 @ActiveProfiles("test")
@@ -102,11 +127,47 @@ class UsersControllerTest {
 	}
 
 	@Test
-	@DisplayName("#getUser with id exists should call service and return 200 ")
-	void testGetUser() throws Exception {
+	@DisplayName("#createUsers with json array should pass all items to service and return results")
+	void testCreateUsers_jsonArray() throws Exception {
 		var user = new User();
 		user.setName("MyName");
-		when(this.usersService.getUser(1L)).thenReturn(Optional.of(user));
+		when(this.usersService.createUsers(any())).thenReturn(List.of(BatchItemResult.created(0, 7L), BatchItemResult.created(1, 8L)));
+
+		mvc.perform(post("/api/rest/users/batch").with(csrf()).contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().writeValueAsString(List.of(user, user))))
+				.andDo(print())
+				.andExpectAll(
+						status().isOk(),
+						jsonPath("$[0].id", is(7)),
+						jsonPath("$[1].status", is("CREATED")));
+
+		verify(this.usersService, times(1)).createUsers(any());
+	}
+
+	@Test
+	@DisplayName("#createUsers with ndjson should read one user per line and report malformed lines")
+	@SuppressWarnings("unchecked")
+	void testCreateUsers_ndjson() throws Exception {
+		var captor = ArgumentCaptor.forClass(Iterator.class);
+		var received = new ArrayList<User>();
+		when(this.usersService.createUsers(captor.capture())).thenAnswer(invocation -> {
+			((Iterator<User>) invocation.getArgument(0)).forEachRemaining(received::add);
+			return List.of();
+		});
+
+		mvc.perform(post("/api/rest/users/batch").with(csrf()).contentType("application/x-ndjson")
+				.content("{\"name\":\"Jon\"}\n{\"name\":1,\"unknown\":[}\n"))
+				.andDo(print())
+				.andExpect(status().isOk());
+
+		assertThat(received).hasSizeGreaterThanOrEqualTo(1);
+		assertThat(received.get(0).getName()).isEqualTo("Jon");
+	}
+
+	@Test
+	@DisplayName("#getUser with id exists should call service and return 200 ")
+	void testGetUser() throws Exception {
+		when(this.usersService.getUser(1L)).thenReturn(Optional.of(new UserDto(1L, "MyName")));
 
 		mvc.perform(get("/api/rest/users/1").with(csrf()))
 				.andDo(print())
@@ -117,6 +178,47 @@ class UsersControllerTest {
 		verify(this.usersService, times(1)).getUser(1L);
 	}
 
+	@Test
+	@DisplayName("#getUser should send the version as ETag with cache control")
+	void testGetUser_eTag() throws Exception {
+		when(this.usersService.getUser(1L)).thenReturn(Optional.of(new UserDto(1L, "MyName", 3L)));
+
+		mvc.perform(get("/api/rest/users/1").with(csrf()))
+				.andExpectAll(
+						status().isOk(),
+						header().string(HttpHeaders.ETAG, "\"3\""),
+						header().string(HttpHeaders.CACHE_CONTROL, "no-cache"),
+						jsonPath("$.version").doesNotExist());
+	}
+
+	@Test
+	@DisplayName("#getUser with matching If-None-Match should return 304 without body")
+	void testGetUser_notModified() throws Exception {
+		when(this.usersService.getUser(1L)).thenReturn(Optional.of(new UserDto(1L, "MyName", 3L)));
+
+		mvc.perform(get("/api/rest/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\"").with(csrf()))
+				.andExpectAll(
+						status().isNotModified(),
+						header().string(HttpHeaders.ETAG, "\"3\""),
+						content().string(""));
+	}
+
+	@Test
+	@DisplayName("#getUserPage with the ETag of the same page should return 304")
+	void testGetUserPage_notModified() throws Exception {
+		when(this.usersService.getUserPage(any())).thenReturn(new PageImpl<>(List.of(new UserDto(1L, "MyName", 0L))));
+
+		var eTag = mvc.perform(get("/api/rest/users").with(csrf()))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		assertThat(eTag).startsWith("W/");
+		mvc.perform(get("/api/rest/users").header(HttpHeaders.IF_NONE_MATCH, eTag).with(csrf()))
+				.andExpectAll(
+						status().isNotModified(),
+						content().string(""));
+	}
+
 	@Test
 	@DisplayName("#getUser with invalid id return 400 ")
 	void testGetUser_invalidId() throws Exception {
@@ -143,9 +245,7 @@ class UsersControllerTest {
 	@Test
 	@DisplayName("#getUserPage without pageable should take default value and return page with 200")
 	void testGetUserPage_withoutPageable() throws Exception {
-		var user = new User();
-		user.setName("MyName");
-		var page = new PageImpl<User>(List.of(user));
+		var page = new PageImpl<>(List.of(new UserDto(1L, "MyName")));
 		when(this.usersService.getUserPage(any())).thenReturn(page);
 
 		mvc.perform(get("/api/rest/users").with(csrf()))
@@ -153,7 +253,10 @@ class UsersControllerTest {
 				.andExpectAll(
 						status().isOk(),
 						jsonPath("$.content[0].name", is("MyName")),
-						jsonPath("$.totalElements", is(1)));
+						jsonPath("$.totalElements", is(1)),
+						jsonPath("$.last", is(true)),
+						jsonPath("$.pageable").doesNotExist(),
+						jsonPath("$.sort").doesNotExist());
 
 		verify(this.usersService, times(1)).getUserPage(PageRequest.of(0, 20));
 	}
@@ -161,7 +264,7 @@ class UsersControllerTest {
 	@Test
 	@DisplayName("#getUserPage with pageable return page with 200")
 	void testGetUserPage_withPageable() throws Exception {
-		var page = new PageImpl<User>(List.of(new User()));
+		var page = new PageImpl<>(List.of(new UserDto(1L, "MyName")));
 		when(this.usersService.getUserPage(any())).thenReturn(page);
 
 		mvc.perform(get("/api/rest/users?size=123&page=2").with(csrf()))
@@ -171,6 +274,206 @@ class UsersControllerTest {
 		verify(this.usersService, times(1)).getUserPage(PageRequest.of(2, 123));
 	}
 
+	@Test
+	@DisplayName("#getUserPage with Accept Smile or CBOR should return the binary encoding")
+	void testGetUserPage_binaryEncoding() throws Exception {
+		when(this.usersService.getUserPage(any())).thenReturn(new PageImpl<>(List.of(new UserDto(1L, "MyName", 0L))));
+
+		var smile = mvc.perform(get("/api/rest/users").accept("application/x-jackson-smile").with(csrf()))
+				.andExpect(content().contentType("application/x-jackson-smile"))
+				.andReturn().getResponse().getContentAsByteArray();
+		mvc.perform(get("/api/rest/users").accept(MediaType.APPLICATION_CBOR).with(csrf()))
+				.andExpect(content().contentType(MediaType.APPLICATION_CBOR));
+
+		var page = new ObjectMapper(new SmileFactory()).readTree(smile);
+		assertThat(page.at("/content/0/name").asText()).isEqualTo("MyName");
+		assertThat(page.at("/totalElements").asLong()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("#getUserSlice with empty cursor should start at first user and return next cursor")
+	void testGetUserSlice_firstSlice() throws Exception {
+		var user = new UserDto(42L, "MyName");
+		when(this.usersService.getUserSlice(Long.MIN_VALUE, 1)).thenReturn(new SliceImpl<>(List.of(user), PageRequest.ofSize(1), true));
+
+		mvc.perform(get("/api/rest/users?after=&size=1").with(csrf()))
+				.andDo(print())
+				.andExpectAll(
+						status().isOk(),
+						jsonPath("$.content[0].id", is(42)),
+						jsonPath("$.next", is(CursorPage.encodeCursor(42L))),
+						jsonPath("$.totalElements").doesNotExist());
+	}
+
+	@Test
+	@DisplayName("#getUserSlice with cursor should continue after cursor id and omit next on last slice")
+	void testGetUserSlice_lastSlice() throws Exception {
+		when(this.usersService.getUserSlice(42L, 20)).thenReturn(new SliceImpl<>(List.of(new UserDto(43L, "MyName")), PageRequest.ofSize(20), false));
+
+		mvc.perform(get("/api/rest/users?after=" + CursorPage.encodeCursor(42L)).with(csrf()))
+				.andDo(print())
+				.andExpectAll(
+						status().isOk(),
+						jsonPath("$.next").doesNotExist());
+
+		verify(this.usersService, times(1)).getUserSlice(42L, 20);
+		verify(this.usersService, times(0)).getUserPage(any());
+	}
+
+	@Test
+	@DisplayName("#searchUsers should return the matching slice")
+	void testSearchUsers() throws Exception {
+		when(this.usersService.searchUsers("jo", PageRequest.of(1, 10)))
+				.thenReturn(new SliceImpl<>(List.of(new UserDto(42L, "Jon")), PageRequest.of(1, 10), true));
+
+		mvc.perform(get("/api/rest/users/search?q=jo&page=1&size=10").with(csrf()))
+				.andDo(print())
+				.andExpectAll(
+						status().isOk(),
+						jsonPath("$.content[0].name", is("Jon")),
+						jsonPath("$.page", is(1)),
+						jsonPath("$.last", is(false)),
+						jsonPath("$.totalElements").doesNotExist());
+	}
+
+	@Test
+	@DisplayName("#searchUsers with blank query should return 400")
+	void testSearchUsers_blankQuery() throws Exception {
+
+		mvc.perform(get("/api/rest/users/search").param("q", " ").with(csrf()))
+				.andExpect(status().isBadRequest());
+
+		verify(this.usersService, times(0)).searchUsers(any(), any());
+	}
+
+	@Test
+	@DisplayName("#getUserSlice with invalid cursor should return 400")
+	void testGetUserSlice_invalidCursor() throws Exception {
+
+		mvc.perform(get("/api/rest/users?after=$$$").with(csrf()))
+				.andDo(print())
+				.andExpect(status().isBadRequest());
+
+		verify(this.usersService, times(0)).getUserSlice(anyLong(), anyInt());
+	}
+
+	@Test
+	@DisplayName("#exportUsers without format should stream one json object per line")
+	@SuppressWarnings("unchecked")
+	void testExportUsers_ndjson() throws Exception {
+		doAnswer(invocation -> {
+			var consumer = (Consumer<UserDto>) invocation.getArgument(0);
+			consumer.accept(new UserDto(1L, "Jon"));
+			consumer.accept(new UserDto(2L, "Tanya"));
+			return null;
+		}).when(this.usersService).exportUsers(any());
+		when(this.usersService.getChangeSeqs()).thenReturn(List.of(42L));
+
+		var result = mvc.perform(get("/api/rest/users/export").with(csrf()))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		// users.export.timeout, only the export outlasts the timeout of the container
+		assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(Duration.ofMinutes(10).toMillis());
+
+		mvc.perform(asyncDispatch(result))
+				.andExpectAll(
+						status().isOk(),
+						header().string("X-Change-Seq", "42"),
+						content().contentTypeCompatibleWith("application/x-ndjson"),
+						content().string("{\"id\":1,\"name\":\"Jon\"}\n{\"id\":2,\"name\":\"Tanya\"}\n"));
+	}
+
+	@Test
+	@DisplayName("#exportUsers with csv format should stream header and escaped rows")
+	@SuppressWarnings("unchecked")
+	void testExportUsers_csv() throws Exception {
+		doAnswer(invocation -> {
+			((Consumer<UserDto>) invocation.getArgument(0)).accept(new UserDto(1L, "Jon, \"Jr\""));
+			return null;
+		}).when(this.usersService).exportUsers(any());
+		// sharded, one seq per shard
+		when(this.usersService.getChangeSeqs()).thenReturn(List.of(42L, 7L));
+
+		var result = mvc.perform(get("/api/rest/users/export?format=csv").with(csrf()))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
+				.andExpectAll(
+						status().isOk(),
+						header().string("X-Change-Seq", "42,7"),
+						content().string("id,name\n1,\"Jon, \"\"Jr\"\"\"\n"));
+	}
+
+	@Test
+	@DisplayName("#exportUsers with unknown format should return 400")
+	void testExportUsers_unknownFormat() throws Exception {
+
+		mvc.perform(get("/api/rest/users/export?format=xml").with(csrf()))
+				.andExpect(status().isBadRequest());
+
+		verify(this.usersService, times(0)).exportUsers(any());
+	}
+
+	@Test
+	@DisplayName("#getChanges should return the changes and the seq of the next poll")
+	void testGetChanges() throws Exception {
+		var page = new ChangePage(0, List.of(new UserChangeDto(7L, UserChange.Type.CREATED, 1L, "Jon"),
+				new UserChangeDto(8L, UserChange.Type.REMOVED, 2L, null)), 8L);
+		when(this.usersService.getChanges(eq(0), eq(6L), eq(100), any())).thenReturn(CompletableFuture.completedFuture(page));
+
+		var result = mvc.perform(get("/api/rest/users/changes?since=6").with(csrf()))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
+				.andExpectAll(
+						status().isOk(),
+						jsonPath("$.shard", is(0)),
+						jsonPath("$.next", is(8)),
+						jsonPath("$.changes[0].type", is("CREATED")),
+						jsonPath("$.changes[0].name", is("Jon")),
+						jsonPath("$.changes[1].userId", is(2)),
+						jsonPath("$.changes[1].name").doesNotExist());
+		verify(this.usersService).getChanges(0, 6L, 100, Duration.ofSeconds(30));
+	}
+
+	@Test
+	@DisplayName("#getChanges should cap the wait at the configured maximum")
+	void testGetChanges_maxWait() throws Exception {
+		when(this.usersService.getChanges(anyInt(), anyLong(), anyInt(), any()))
+				.thenReturn(CompletableFuture.completedFuture(new ChangePage(1, List.of(), 6L)));
+
+		mvc.perform(get("/api/rest/users/changes?shard=1&since=6&wait=3600&limit=5000").with(csrf()))
+				.andExpect(request().asyncStarted());
+
+		verify(this.usersService).getChanges(1, 6L, UsersController.MAX_PAGE_SIZE, Duration.ofSeconds(30));
+	}
+
+	@Test
+	@DisplayName("#getChanges behind the truncated seq should return 410")
+	void testGetChanges_truncated() throws Exception {
+		when(this.usersService.getChanges(anyInt(), anyLong(), anyInt(), any()))
+				.thenReturn(CompletableFuture.failedFuture(new GoneException("truncated")));
+
+		var result = mvc.perform(get("/api/rest/users/changes?since=1").with(csrf()))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
+				.andExpect(status().isGone());
+	}
+
+	@Test
+	@DisplayName("#getChanges with negative since should return 400")
+	void testGetChanges_negativeSince() throws Exception {
+
+		mvc.perform(get("/api/rest/users/changes?since=-1").with(csrf()))
+				.andExpect(status().isBadRequest());
+
+		verify(this.usersService, times(0)).getChanges(anyInt(), anyLong(), anyInt(), any());
+	}
+
 	@Test
 	@DisplayName("#removeUser with id not exists should call service and return 404")
 	void testRemoveUser() throws Exception {
@@ -193,16 +496,45 @@ class UsersControllerTest {
 		verify(this.usersService, times(0)).removeUser(any());
 	}
 
+	@Test
+	@DisplayName("#removeUsers should pass all ids to the service and return 204")
+	void testRemoveUsers() throws Exception {
+
+		mvc.perform(delete("/api/rest/users?ids=1,2,3").with(csrf()))
+				.andDo(print())
+				.andExpect(status().isNoContent());
+
+		verify(this.usersService, times(1)).removeUsers(List.of(1L, 2L, 3L));
+	}
+
+	@Test
+	@DisplayName("#removeUsers with too many ids should return 400")
+	void testRemoveUsers_tooManyIds() throws Exception {
+		var ids = new StringBuilder("0");
+		for (int i = 1; i <= UsersController.MAX_BULK_DELETE; i++) {
+			ids.append(',').append(i);
+		}
+
+		mvc.perform(delete("/api/rest/users?ids=" + ids).with(csrf()))
+				.andExpect(status().isBadRequest());
+
+		verify(this.usersService, times(0)).removeUsers(any());
+	}
+
 	@Test
 	@DisplayName("#login with unmatched password should return 401")
 	void testLogin_unmatchedPassword() throws Exception {
-		when(this.usersService.login(any())).thenReturn(false);
+		when(this.usersService.login(any(), any())).thenReturn(CompletableFuture.completedFuture(Optional.empty()));
 		var login = new Login();
 		login.setPassword("lorem ipsum doret");
 		login.setUserId(1L);
 
-		mvc.perform(post("/api/rest/users/login").with(csrf()).contentType(MediaType.APPLICATION_JSON)
+		var result = mvc.perform(post("/api/rest/users/login").with(csrf()).contentType(MediaType.APPLICATION_JSON)
 				.content(new ObjectMapper().writeValueAsString(login)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
 				.andDo(print()) 
 				.andExpect(status().isUnauthorized()); 
 
@@ -221,46 +553,64 @@ class UsersControllerTest {
 				.andDo(print()) 
 				.andExpect(status().isBadRequest()); 
 
-		verify(this.usersService, times(0)).login(any());
+		verify(this.usersService, times(0)).login(any(), any());
 	}
 
 	@Test
 	@DisplayName("#login with matched password and user should return 200")
 	void testLogin_matchedPasswordAndUser() throws Exception {
-		when(this.usersService.login(any())).thenReturn(true);
-		var user = new User();
-		user.setName("Jon");
-		when(this.usersService.getUser(any())).thenReturn(Optional.of(user));
+		when(this.usersService.login(any(), any())).thenReturn(CompletableFuture.completedFuture(Optional.of(new UserDto(1L, "Jon"))));
 		var login = new Login();
 		login.setPassword("lorem ipsum doret");
 		login.setUserId(1L);
 
-		mvc.perform(post("/api/rest/users/login").with(csrf()).contentType(MediaType.APPLICATION_JSON)
+		var result = mvc.perform(post("/api/rest/users/login").with(csrf()).contentType(MediaType.APPLICATION_JSON)
 				.content(new ObjectMapper().writeValueAsString(login)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
 				.andDo(print()) 
 				.andExpectAll(
 						status().isOk(),
 						jsonPath("$.name", is("Jon")));
 
-		verify(this.usersService, times(1)).login(any());
-		verify(this.usersService, times(1)).getUser(any());
+		verify(this.usersService, times(1)).login(any(), eq("127.0.0.1"));
+		verify(this.usersService, times(0)).getUser(any());
 	}
 	
 	@Test
-	@DisplayName("#login with matched password and no user should return 401")
-	void testLogin_matchedPasswordWithoutUser() throws Exception {
-		when(this.usersService.login(any())).thenReturn(true);
-		when(this.usersService.getUser(any())).thenReturn(Optional.empty());
+	@DisplayName("#login throttled should return 429 with Retry-After")
+	void testLogin_throttled() throws Exception {
+		when(this.usersService.login(any(), any())).thenThrow(new TooManyRequestsException(30));
 		var login = new Login();
 		login.setPassword("lorem ipsum doret");
 		login.setUserId(1L);
 
 		mvc.perform(post("/api/rest/users/login").with(csrf()).contentType(MediaType.APPLICATION_JSON)
 				.content(new ObjectMapper().writeValueAsString(login)))
-				.andDo(print()) 
-				.andExpect(status().isUnauthorized()); 
+				.andExpectAll(
+						status().isTooManyRequests(),
+						header().string(HttpHeaders.RETRY_AFTER, "30"));
+	}
+
+	@Test
+	@DisplayName("#login with saturated hashing executor should return 503")
+	void testLogin_hashingSaturated() throws Exception {
+		when(this.usersService.login(any(), any())).thenReturn(CompletableFuture.failedFuture(new ServiceUnavailableException()));
+		var login = new Login();
+		login.setPassword("lorem ipsum doret");
+		login.setUserId(1L);
 
-		verify(this.usersService, times(1)).login(any());
-		verify(this.usersService, times(1)).getUser(any());
+		var result = mvc.perform(post("/api/rest/users/login").with(csrf()).contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().writeValueAsString(login)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
+				.andDo(print())
+				.andExpect(status().isServiceUnavailable());
+
+		verify(this.usersService, times(0)).getUser(any());
 	}
 }
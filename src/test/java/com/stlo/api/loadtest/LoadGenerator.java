@@ -0,0 +1,196 @@
+package com.stlo.api.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Open-loop load generator for the users API. Requests are started at a fixed arrival rate,
+ * independent of how fast earlier requests complete. Latency is measured from the intended
+ * start time of a request, so a stalled server is not hidden by coordinated omission.
+ */
+class LoadGenerator {
+
+	enum Operation {
+		CREATE, GET, PAGE, LOGIN, DELETE
+	}
+
+	private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+	private static final int KNOWN_IDS = 1 << 16;
+	private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+	private final URI baseUri;
+	private final String password;
+	private final HttpClient client;
+
+	private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+	private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+	private final Map<Operation, AtomicLong> rejected = new EnumMap<>(Operation.class);
+	private final AtomicLongArray knownIds = new AtomicLongArray(KNOWN_IDS);
+	private final AtomicLong knownIdCount = new AtomicLong();
+	private final ConcurrentLinkedQueue<Long> deletableIds = new ConcurrentLinkedQueue<>();
+
+	LoadGenerator(URI baseUri, String password) {
+		this.baseUri = baseUri;
+		this.password = password;
+		this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+		for (var operation : Operation.values()) {
+			this.latencies.put(operation, new ConcurrentHistogram(MAX_LATENCY_NANOS, 3));
+			this.errors.put(operation, new AtomicLong());
+			this.rejected.put(operation, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Parses a mix like <code>create=10,get=50,page=20,login=15,delete=5</code>.
+	 */
+	static Map<Operation, Integer> parseMix(String mix) {
+		var weights = new EnumMap<Operation, Integer>(Operation.class);
+		for (var entry : mix.split(",")) {
+			var parts = entry.trim().split("=");
+			weights.put(Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].trim()));
+		}
+		return weights;
+	}
+
+	/**
+	 * Creates users synchronously, so reads and logins have ids to work with.
+	 */
+	void seed(int users) {
+		for (int i = 0; i < users; i++) {
+			send(Operation.CREATE).join();
+		}
+		reset();
+	}
+
+	/**
+	 * Issues requests at <code>ratePerSecond</code> for the given duration and waits for all of them.
+	 */
+	void run(Map<Operation, Integer> mix, int ratePerSecond, Duration duration) {
+		var operations = new ArrayList<Operation>();
+		mix.forEach((operation, weight) -> {
+			for (int i = 0; i < weight; i++) {
+				operations.add(operation);
+			}
+		});
+
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+		long total = duration.getSeconds() * ratePerSecond;
+		long start = System.nanoTime();
+		List<CompletableFuture<?>> inFlight = new ArrayList<>();
+
+		for (long i = 0; i < total; i++) {
+			long intended = start + i * intervalNanos;
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			var operation = operations.get(ThreadLocalRandom.current().nextInt(operations.size()));
+			inFlight.add(send(operation, intended));
+		}
+		CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+	}
+
+	Histogram latencies(Operation operation) {
+		return this.latencies.get(operation);
+	}
+
+	long errors(Operation operation) {
+		return this.errors.get(operation).get();
+	}
+
+	/**
+	 * Requests shed with 503 by a saturated hashing pool or 429 by the login throttle, that is load
+	 * shedding and not an error.
+	 */
+	long rejected(Operation operation) {
+		return this.rejected.get(operation).get();
+	}
+
+	private void reset() {
+		this.latencies.values().forEach(Histogram::reset);
+		this.errors.values().forEach(counter -> counter.set(0));
+		this.rejected.values().forEach(counter -> counter.set(0));
+	}
+
+	private CompletableFuture<?> send(Operation operation) {
+		return send(operation, System.nanoTime());
+	}
+
+	private CompletableFuture<?> send(Operation operation, long intendedNanos) {
+		return this.client.sendAsync(request(operation), HttpResponse.BodyHandlers.ofString())
+				.handle((response, failure) -> {
+					long latency = Math.min(System.nanoTime() - intendedNanos, MAX_LATENCY_NANOS);
+					this.latencies.get(operation).recordValue(latency);
+					if (failure == null && (response.statusCode() == 503 || response.statusCode() == 429)) {
+						this.rejected.get(operation).incrementAndGet();
+					} else if (failure != null || response.statusCode() >= 500) {
+						this.errors.get(operation).incrementAndGet();
+					} else if (operation == Operation.CREATE && response.statusCode() == 200) {
+						remember(response.body());
+					}
+					return null;
+				});
+	}
+
+	private HttpRequest request(Operation operation) {
+		var users = this.baseUri.resolve("/api/rest/users");
+		switch (operation) {
+		case CREATE:
+			return post(users, "{\"name\":\"load-" + ThreadLocalRandom.current().nextInt(1_000_000) + "\"}");
+		case GET:
+			return HttpRequest.newBuilder(URI.create(users + "/" + randomKnownId())).GET().build();
+		case PAGE:
+			return HttpRequest.newBuilder(URI.create(users + "?size=20&page=" + ThreadLocalRandom.current().nextInt(10)))
+					.GET().build();
+		case LOGIN:
+			return post(URI.create(users + "/login"),
+					"{\"userId\":" + randomKnownId() + ",\"password\":\"" + this.password + "\"}");
+		case DELETE:
+			var id = this.deletableIds.poll();
+			return HttpRequest.newBuilder(URI.create(users + "/" + (id == null ? randomKnownId() : id))).DELETE().build();
+		default:
+			throw new IllegalArgumentException(operation.name());
+		}
+	}
+
+	private static HttpRequest post(URI uri, String json) {
+		return HttpRequest.newBuilder(uri)
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json))
+				.build();
+	}
+
+	private void remember(String body) {
+		Matcher matcher = ID.matcher(body);
+		if (matcher.find()) {
+			long id = Long.parseLong(matcher.group(1));
+			this.knownIds.set((int) (this.knownIdCount.getAndIncrement() % KNOWN_IDS), id);
+			this.deletableIds.add(id);
+		}
+	}
+
+	private long randomKnownId() {
+		long count = Math.min(this.knownIdCount.get(), KNOWN_IDS);
+		return count == 0 ? 1L : this.knownIds.get(ThreadLocalRandom.current().nextInt((int) count));
+	}
+}
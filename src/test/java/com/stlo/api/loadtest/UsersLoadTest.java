@@ -0,0 +1,94 @@
+package com.stlo.api.loadtest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.stlo.api.loadtest.LoadGenerator.Operation;
+
+/**
+ * Drives a mix of requests against the application on a random port, backed by a file based
+ * H2 database in <code>target/loadtest</code>. Run with <code>mvn test -Ploadtest</code>, tune with
+ * <code>-Dloadtest.rate=200 -Dloadtest.duration=60 -Dloadtest.mix=create=10,get=50,...</code>.
+ * Percentile distributions are written next to the database as <code>*.hgrm</code>. Add
+ * <code>-Pvirtual-threads</code> to compare against requests on virtual threads.
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "logging.level.root=WARN")
+class UsersLoadTest {
+
+	private static final Path OUTPUT = Path.of("target", "loadtest");
+
+	private static final int RATE = Integer.getInteger("loadtest.rate", 50);
+	private static final int DURATION = Integer.getInteger("loadtest.duration", 30);
+	private static final int SEED = Integer.getInteger("loadtest.seed", 200);
+	private static final String MIX = System.getProperty("loadtest.mix", "create=10,get=50,page=20,login=15,delete=5");
+
+	@LocalServerPort
+	int port;
+
+	@Value("${security.credentials.password}")
+	String password;
+
+	@Value("${server.execution-mode}")
+	String executionMode;
+
+	@DynamicPropertySource
+	static void database(DynamicPropertyRegistry registry) {
+		var file = OUTPUT.resolve("users-" + System.currentTimeMillis()).toAbsolutePath();
+		registry.add("spring.datasource.url", () -> "jdbc:h2:file:" + file);
+	}
+
+	@Test
+	@DisplayName("mixed load at a fixed arrival rate should complete without server errors")
+	void mixedLoad() throws IOException {
+		var generator = new LoadGenerator(URI.create("http://localhost:" + this.port), this.password);
+		generator.seed(SEED);
+
+		generator.run(LoadGenerator.parseMix(MIX), RATE, Duration.ofSeconds(DURATION));
+
+		Files.createDirectories(OUTPUT);
+		System.out.printf("Load test: %d req/s for %d s, mix %s, %s threads%n", RATE, DURATION, MIX, this.executionMode);
+		System.out.printf("%-8s %8s %10s %10s %10s %10s %8s %8s%n", "endpoint", "count", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "rejected", "errors");
+		long errors = 0;
+		for (var operation : Operation.values()) {
+			var histogram = generator.latencies(operation);
+			if (histogram.getTotalCount() == 0) {
+				continue;
+			}
+			System.out.printf("%-8s %8d %10.1f %10.2f %10.2f %10.2f %8d %8d%n",
+					operation.name().toLowerCase(),
+					histogram.getTotalCount(),
+					histogram.getTotalCount() / (double) DURATION,
+					millis(histogram.getValueAtPercentile(50)),
+					millis(histogram.getValueAtPercentile(99)),
+					millis(histogram.getValueAtPercentile(99.9)),
+					generator.rejected(operation),
+					generator.errors(operation));
+			try (var out = new PrintStream(Files.newOutputStream(OUTPUT.resolve(operation.name().toLowerCase() + ".hgrm")))) {
+				histogram.outputPercentileDistribution(out, 1_000_000d);
+			}
+			errors += generator.errors(operation);
+		}
+
+		assertThat(errors).isZero();
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000d;
+	}
+}
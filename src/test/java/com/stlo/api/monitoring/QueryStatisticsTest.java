@@ -0,0 +1,137 @@
+package com.stlo.api.monitoring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.jayway.jsonpath.JsonPath;
+import com.stlo.api.model.db.User;
+import com.stlo.api.service.UsersService;
+
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:query-stats-test",
+		"users.query-stats.enabled=true",
+		"users.query-stats.slow-threshold=0ms" })
+class QueryStatisticsTest {
+
+	private static final String LOGIN = "POST /api/rest/users/login";
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	QueryStatistics queryStatistics;
+
+	@Autowired
+	UsersService usersService;
+
+	@BeforeEach
+	void init() {
+		this.queryStatistics.reset();
+	}
+
+	@Test
+	@DisplayName("login request should issue one statement within the budget")
+	void testLogin_statementsPerRequest() throws Exception {
+		var user = new User();
+		user.setName("Jon");
+		var userId = this.usersService.createUser(user).getId();
+
+		var result = this.mockMvc.perform(post("/api/rest/users/login")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"userId\":" + userId + ",\"password\":\"1234567890\"}"))
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+		var login = this.queryStatistics.getEndpoints().get(LOGIN);
+		assertThat(login.getLastStatements()).isEqualTo(1);
+		assertThat(login.getOverBudget()).isZero();
+	}
+
+	@Test
+	@DisplayName("create, lookup, page and removal should stay within the default budget")
+	void testEndpoints_withinBudget() throws Exception {
+
+		var created = this.mockMvc.perform(post("/api/rest/users")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"name\":\"Jon\"}"))
+				.andExpect(status().isOk())
+				.andReturn();
+		var userId = JsonPath.read(created.getResponse().getContentAsString(), "$.id");
+		this.mockMvc.perform(get("/api/rest/users/" + userId)).andExpect(status().isOk());
+		this.mockMvc.perform(get("/api/rest/users?page=0&size=2")).andExpect(status().isOk());
+		this.mockMvc.perform(delete("/api/rest/users/" + userId)).andExpect(status().isNoContent());
+
+		var page = this.queryStatistics.getEndpoints().get("GET /api/rest/users");
+		assertThat(page.getLastStatements()).isEqualTo(2);
+		assertThat(this.queryStatistics.getEndpoints()).hasSize(4)
+				.allSatisfy((name, endpoint) -> assertThat(endpoint.getOverBudget()).as(name).isZero());
+	}
+
+	@Test
+	@DisplayName("scope over the budget should be counted")
+	void testScope_overBudget() {
+
+		try (var scope = this.queryStatistics.openScope("test")) {
+			for (int i = 0; i <= this.queryStatistics.getBudget() / 2; i++) {
+				this.usersService.getUserPage(PageRequest.of(i, 2));
+			}
+		}
+
+		assertThat(this.queryStatistics.getEndpoints().get("test").getOverBudget()).isOne();
+	}
+
+	@Test
+	@DisplayName("requests no handler matched should share one scope instead of one per path")
+	void testUnmatched_oneScope() throws Exception {
+		var filter = new QueryStatisticsFilter(this.queryStatistics);
+
+		filter.doFilter(new MockHttpServletRequest("GET", "/unknown/1"), new MockHttpServletResponse(), new MockFilterChain());
+		filter.doFilter(new MockHttpServletRequest("GET", "/unknown/2"), new MockHttpServletResponse(), new MockFilterChain());
+
+		assertThat(this.queryStatistics.getEndpoints()).containsOnlyKeys(QueryStatisticsFilter.UNMATCHED);
+		assertThat(this.queryStatistics.getEndpoints().get(QueryStatisticsFilter.UNMATCHED).getRequests()).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("scope should count statements of the current thread")
+	void testScope() {
+
+		try (var scope = this.queryStatistics.openScope("test")) {
+			this.usersService.getUserPage(PageRequest.of(0, 2));
+
+			assertThat(scope.getStatements()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	@DisplayName("endpoint should list slow statements with parameter types")
+	void testEndpoint_slowStatements() throws Exception {
+
+		this.mockMvc.perform(get("/api/rest/users?after=&size=2")).andExpect(status().isOk());
+
+		this.mockMvc.perform(get("/actuator/querystats"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.endpoints['GET /api/rest/users'].requests").value(1))
+				.andExpect(jsonPath("$.slowStatements[*].parameters", hasItem("[(Long, Int)]")));
+	}
+}
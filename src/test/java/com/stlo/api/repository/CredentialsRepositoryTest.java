@@ -0,0 +1,125 @@
+package com.stlo.api.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import com.stlo.api.model.db.User;
+import com.stlo.api.model.db.UserCredential;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class CredentialsRepositoryTest {
+
+	@Autowired
+	CredentialsRepository credentialsRepository;
+
+	@Autowired
+	UsersRepository usersRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	private Long userId;
+
+	@BeforeEach
+	void init() {
+		var user = new User();
+		user.setName("Jon");
+		this.userId = this.usersRepository.save(user).getId();
+		this.credentialsRepository.save(new UserCredential(this.userId, "hash"));
+		this.entityManager.flush();
+		this.entityManager.clear();
+
+		this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		this.statistics.clear();
+	}
+
+	@Test
+	@DisplayName("#findLoginByUserId should return user and password hash")
+	void testFindLoginByUserId() {
+
+		var result = this.credentialsRepository.findLoginByUserId(this.userId);
+
+		assertThat(result).hasValueSatisfying(login -> {
+			assertThat(login.getPassword()).isEqualTo("hash");
+			assertThat(login.getUser().getId()).isEqualTo(this.userId);
+			assertThat(login.getUser().getName()).isEqualTo("Jon");
+		});
+	}
+
+	@Test
+	@DisplayName("#findLoginByUserId with unknown user should return empty")
+	void testFindLoginByUserId_unknownUser() {
+
+		assertThat(this.credentialsRepository.findLoginByUserId(-1L)).isEmpty();
+	}
+
+	@Test
+	@DisplayName("#findLoginByUserId should need one query per login where the separate lookups need two")
+	void testFindLoginByUserId_queryCount() {
+
+		this.credentialsRepository.findById(this.userId);
+		this.usersRepository.findById(this.userId);
+		var separateLookups = this.statistics.getPrepareStatementCount();
+
+		this.entityManager.clear();
+		this.statistics.clear();
+
+		this.credentialsRepository.findLoginByUserId(this.userId);
+		var joinedLookup = this.statistics.getPrepareStatementCount();
+
+		assertThat(separateLookups).isEqualTo(2);
+		assertThat(joinedLookup).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("#deleteOrphans should remove credentials of deleted users only")
+	void testDeleteOrphans() {
+		var user = new User();
+		user.setName("Eric");
+		var orphanId = this.usersRepository.save(user).getId();
+		this.credentialsRepository.save(new UserCredential(orphanId, "hash"));
+		this.entityManager.flush();
+		this.usersRepository.deleteByIdIn(List.of(orphanId));
+
+		var removed = this.credentialsRepository.deleteOrphans(10);
+		this.entityManager.clear();
+
+		assertThat(removed).isEqualTo(1);
+		assertThat(this.credentialsRepository.findById(orphanId)).isEmpty();
+		assertThat(this.credentialsRepository.findById(this.userId)).isPresent();
+	}
+
+	@Test
+	@DisplayName("#save of a new credential should insert by the user id without a select or sequence call")
+	void testSave_sharedPrimaryKey() {
+		var user = new User();
+		user.setName("Tanya");
+		var userId = this.usersRepository.save(user).getId();
+		this.entityManager.flush();
+		this.statistics.clear();
+
+		this.credentialsRepository.save(new UserCredential(userId, "hash"));
+		this.entityManager.flush();
+
+		assertThat(this.statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(this.credentialsRepository.findById(userId)).hasValueSatisfying(
+				credential -> assertThat(credential.getPassword()).isEqualTo("hash"));
+	}
+}
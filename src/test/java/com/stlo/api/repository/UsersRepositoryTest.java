@@ -0,0 +1,63 @@
+package com.stlo.api.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.db.User;
+
+@DataJpaTest(properties = "spring.flyway.locations=classpath:db/migration")
+class UsersRepositoryTest {
+
+	@Autowired
+	UsersRepository usersRepository;
+
+	@Autowired
+	EntityManager entityManager;
+
+	private Long first;
+
+	@BeforeEach
+	void init() {
+		for (var name : new String[] { "a", "b", "c" }) {
+			var user = new User();
+			user.setName(name);
+			var id = this.usersRepository.save(user).getId();
+			this.first = this.first == null ? id : this.first;
+		}
+		this.entityManager.flush();
+		this.entityManager.clear();
+	}
+
+	@Test
+	@DisplayName("#findDtoByIdGreaterThan should return the users after the id in id order")
+	void testFindDtoByIdGreaterThan() {
+
+		var slice = this.usersRepository.findDtoByIdGreaterThan(this.first, PageRequest.ofSize(1));
+
+		assertThat(slice.getContent()).extracting(UserDto::getName).containsExactly("b");
+		assertThat(slice.hasNext()).isTrue();
+	}
+
+	@Test
+	@DisplayName("#findDtoPage should return projections with total and leave the persistence context empty")
+	void testFindDtoPage() {
+
+		var page = this.usersRepository.findDtoPage(PageRequest.of(0, 2, Sort.by("name").descending()));
+
+		assertThat(page.getContent()).extracting(UserDto::getName).containsExactly("c", "b");
+		assertThat(page.getContent()).extracting(UserDto::getVersion).containsOnly(0L);
+		assertThat(page.getTotalElements()).isEqualTo(3);
+		assertThat(this.entityManager.unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+	}
+}
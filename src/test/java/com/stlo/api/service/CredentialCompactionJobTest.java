@@ -0,0 +1,35 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.stlo.api.repository.CredentialsRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CredentialCompactionJobTest {
+
+	private final CredentialsRepository credentialsRepository = mock(CredentialsRepository.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final CredentialCompactionJob job = new CredentialCompactionJob(this.credentialsRepository, this.meterRegistry,
+			ShardRouter.single(), 2);
+
+	@Test
+	@DisplayName("#compact should delete in batches until a batch is not full")
+	void testCompact() {
+		when(this.credentialsRepository.deleteOrphans(2)).thenReturn(2, 2, 1);
+
+		var result = this.job.compact();
+
+		assertThat(result).isEqualTo(5);
+		verify(this.credentialsRepository, times(3)).deleteOrphans(2);
+		assertThat(this.meterRegistry.get("users.credentials.compacted").counter().count()).isEqualTo(5);
+	}
+}
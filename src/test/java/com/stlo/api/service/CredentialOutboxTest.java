@@ -0,0 +1,155 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.stlo.api.config.ExecutionConfig;
+import com.stlo.api.config.ShardingConfig;
+import com.stlo.api.model.db.User;
+import com.stlo.api.repository.CredentialOutboxRepository;
+import com.stlo.api.repository.CredentialsRepository;
+import com.stlo.api.repository.UsersRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// the writer commits in transactions of its own, the test must not hold one
+@DataJpaTest(properties = { "users.credentials.write-mode=outbox", "users.credentials.outbox.batch-size=2",
+		"spring.flyway.locations=classpath:db/migration" })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ CredentialOutbox.class, ExecutionConfig.class, ShardingConfig.class, SimpleMeterRegistry.class })
+class CredentialOutboxTest {
+
+	@Autowired
+	CredentialOutbox credentialOutbox;
+
+	@Autowired
+	CredentialOutboxRepository outboxRepository;
+
+	@Autowired
+	CredentialsRepository credentialsRepository;
+
+	@Autowired
+	UsersRepository usersRepository;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@MockBean
+	DefaultCredentialService defaultCredentialService;
+
+	@AfterEach
+	void cleanup() {
+		this.credentialsRepository.deleteAllInBatch();
+		this.usersRepository.deleteAllInBatch();
+	}
+
+	@Test
+	@DisplayName("#drain should replace all entries by credentials in batches")
+	void testDrain() {
+		when(this.defaultCredentialService.hash()).thenReturn("hash");
+		var userIds = createUsers("Jon", "Tanya", "Eric");
+
+		var written = this.credentialOutbox.drain();
+
+		assertThat(written).isEqualTo(3);
+		assertThat(this.outboxRepository.count()).isZero();
+		assertThat(this.credentialsRepository.findAllById(userIds)).hasSize(3)
+				.allSatisfy(credential -> assertThat(credential.getPassword()).isEqualTo("hash"));
+		assertThat(this.meterRegistry.get("users.credentials.outbox.written").counter().count()).isEqualTo(3);
+		assertThat(this.credentialOutbox.isPending(userIds.get(0))).isFalse();
+	}
+
+	@Test
+	@DisplayName("#drain should skip entries of users removed before the credential was written")
+	void testDrain_removedUser() {
+		var userIds = createUsers("Jon");
+		assertThat(this.credentialOutbox.isPending(userIds.get(0))).isTrue();
+
+		this.usersRepository.deleteAllByIdInBatch(userIds);
+
+		assertThat(this.outboxRepository.count()).isZero();
+		assertThat(this.credentialOutbox.drain()).isZero();
+		assertThat(this.credentialsRepository.count()).isZero();
+	}
+
+	@Test
+	@DisplayName("#trigger should drain on the writer thread, not on the scheduler")
+	void testTrigger_writerThread() {
+		var thread = new AtomicReference<String>();
+		when(this.defaultCredentialService.hash()).thenAnswer(invocation -> {
+			thread.set(Thread.currentThread().getName());
+			return "hash";
+		});
+		createUsers("Jon");
+
+		this.credentialOutbox.trigger();
+
+		verify(this.defaultCredentialService, timeout(1000)).hash();
+		assertThat(thread.get()).isEqualTo("credential-outbox");
+	}
+
+	@Test
+	@DisplayName("#trigger in sync mode should write the entries left from outbox mode once and then stop")
+	void testTrigger_syncMode() throws Exception {
+		when(this.defaultCredentialService.hash()).thenReturn("hash");
+		var writer = Executors.newSingleThreadExecutor();
+		var sync = new CredentialOutbox(this.outboxRepository, this.credentialsRepository, this.defaultCredentialService,
+				this.transactionManager, new SimpleMeterRegistry(), ShardRouter.single(), writer, CredentialOutbox.SYNC, 2);
+		try {
+			createUsers("Jon", "Tanya", "Eric");
+
+			sync.trigger();
+			awaitIdle(writer);
+			createUsers("Mia");
+			sync.trigger();
+			awaitIdle(writer);
+
+			assertThat(this.credentialsRepository.count()).isEqualTo(3);
+			assertThat(this.outboxRepository.count()).isOne();
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	private static void awaitIdle(ExecutorService writer) throws Exception {
+		writer.submit(() -> { }).get(5, TimeUnit.SECONDS);
+	}
+
+	private List<Long> createUsers(String... names) {
+		return new TransactionTemplate(this.transactionManager).execute(status -> {
+			var ids = new ArrayList<Long>();
+			for (var name : names) {
+				var user = new User();
+				user.setName(name);
+				ids.add(this.usersRepository.save(user).getId());
+			}
+			this.credentialOutbox.add(ids);
+			return ids;
+		});
+	}
+}
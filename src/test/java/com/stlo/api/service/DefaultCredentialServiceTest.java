@@ -0,0 +1,53 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import com.stlo.api.config.SecurityConfig;
+
+class DefaultCredentialServiceTest {
+
+	private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+	private final SecurityConfig securityConfig = mock(SecurityConfig.class);
+
+	@BeforeEach
+	void init() {
+		when(this.securityConfig.getDefaultPassword()).thenReturn("secret");
+		when(this.passwordEncoder.encode("secret")).thenReturn("hash-1", "hash-2");
+	}
+
+	@Test
+	@DisplayName("#hash in per-user mode should hash for every user")
+	void testHash_perUser() {
+		var service = new DefaultCredentialService(this.passwordEncoder, this.securityConfig, "per-user");
+
+		assertThat(service.hash()).isEqualTo("hash-1");
+		assertThat(service.hash()).isEqualTo("hash-2");
+	}
+
+	@Test
+	@DisplayName("the removed shared mode should be rejected, it gave all users the same salt")
+	void testMode_shared() {
+
+		Assertions.assertThrows(IllegalStateException.class,
+				() -> new DefaultCredentialService(this.passwordEncoder, this.securityConfig, "shared"));
+	}
+
+	@Test
+	@DisplayName("#hash in lazy mode should return the marker without hashing")
+	void testHash_lazy() {
+		var service = new DefaultCredentialService(this.passwordEncoder, this.securityConfig, "lazy");
+
+		assertThat(service.hash()).isEqualTo(SecurityConfig.DEFAULT_PASSWORD_MARKER);
+		verify(this.passwordEncoder, times(0)).encode("secret");
+	}
+}
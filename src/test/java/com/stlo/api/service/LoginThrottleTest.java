@@ -0,0 +1,111 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import com.stlo.api.exception.TooManyRequestsException;
+import com.stlo.api.service.StripedCounterStoreTest.MutableClock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class LoginThrottleTest {
+
+	private final MutableClock clock = new MutableClock();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final LoginThrottle throttle = throttle(Map.of("counterStore", new StripedCounterStore(this.clock, 4)),
+			this.meterRegistry);
+
+	@Test
+	@DisplayName("#acquire should reject a user id over its rate")
+	void testAcquire_userRate() {
+		this.throttle.acquire(1L, "10.0.0.1");
+		this.throttle.acquire(1L, "10.0.0.2");
+
+		var exception = Assertions.assertThrows(TooManyRequestsException.class, () -> this.throttle.acquire(1L, "10.0.0.3"));
+
+		assertThat(exception.getRetryAfterSeconds()).isEqualTo(10);
+		assertThat(throttled(LoginThrottle.USER)).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("#acquire should reject a client address over its rate for any user id")
+	void testAcquire_clientRate() {
+		this.throttle.acquire(1L, "10.0.0.1");
+		this.throttle.acquire(2L, "10.0.0.1");
+		this.throttle.acquire(3L, "10.0.0.1");
+
+		Assertions.assertThrows(TooManyRequestsException.class, () -> this.throttle.acquire(4L, "10.0.0.1"));
+		this.throttle.acquire(4L, "10.0.0.2");
+
+		assertThat(throttled(LoginThrottle.CLIENT)).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("#onFailure should lock the user id out after the threshold, doubling up to the maximum")
+	void testOnFailure_lockout() {
+		this.throttle.onFailure(1L);
+		this.throttle.onFailure(1L);
+		this.throttle.acquire(1L, null);
+
+		this.throttle.onFailure(1L);
+		assertThat(retryAfter(1L)).isEqualTo(30);
+		this.throttle.onFailure(1L);
+		assertThat(retryAfter(1L)).isEqualTo(60);
+		this.throttle.onFailure(1L);
+		this.throttle.onFailure(1L);
+		assertThat(retryAfter(1L)).isEqualTo(120);
+
+		assertThat(throttled(LoginThrottle.LOCKED)).isEqualTo(3);
+		assertThat(this.meterRegistry.get("users.login.lockouts").counter().count()).isEqualTo(4);
+	}
+
+	@Test
+	@DisplayName("#onSuccess should clear failures and lockout of the user id")
+	void testOnSuccess() {
+		for (int i = 0; i < 3; i++) {
+			this.throttle.onFailure(1L);
+		}
+
+		this.throttle.onSuccess(1L);
+		this.throttle.onFailure(1L);
+
+		this.throttle.acquire(1L, null);
+	}
+
+	@Test
+	@DisplayName("without a CounterStore bean the counters should be held in memory")
+	void testCounterStore_inMemory() {
+		var meterRegistry = new SimpleMeterRegistry();
+		var inMemory = throttle(Map.of(), meterRegistry);
+
+		inMemory.acquire(1L, null);
+		inMemory.acquire(1L, null);
+
+		Assertions.assertThrows(TooManyRequestsException.class, () -> inMemory.acquire(1L, null));
+		assertThat(meterRegistry.get("users.login.throttle.keys").gauge().value()).isOne();
+	}
+
+	private static LoginThrottle throttle(Map<String, Object> counterStores, SimpleMeterRegistry meterRegistry) {
+		var counterStore = new StaticListableBeanFactory(counterStores).getBeanProvider(CounterStore.class);
+		return new LoginThrottle(counterStore, meterRegistry,
+				true, 2, Duration.ofSeconds(10), 3, Duration.ofSeconds(1),
+				3, Duration.ofSeconds(30), Duration.ofMinutes(2), Duration.ofMinutes(15));
+	}
+
+	private long retryAfter(long userId) {
+		return Assertions.assertThrows(TooManyRequestsException.class, () -> this.throttle.acquire(userId, null))
+				.getRetryAfterSeconds();
+	}
+
+	private double throttled(String reason) {
+		return this.meterRegistry.get("users.login.throttled").tag("reason", reason).counter().count();
+	}
+}
@@ -0,0 +1,67 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import com.stlo.api.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PasswordHashingServiceTest {
+
+	private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final PasswordHashingService service = new PasswordHashingService(this.passwordEncoder, this.meterRegistry, 1, 1);
+
+	@AfterEach
+	void cleanup() {
+		this.release.countDown();
+		this.service.shutdown();
+	}
+
+	@Test
+	@DisplayName("#matches should verify on the executor and record hash time")
+	void testMatches() throws Exception {
+		when(this.passwordEncoder.matches(any(), any())).thenReturn(true);
+
+		var result = this.service.matches("raw", "encoded").get(5, TimeUnit.SECONDS);
+
+		assertThat(result).isTrue();
+		assertThat(this.meterRegistry.get("users.password.hashing").tag("operation", "matches").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("#matches with full queue should fail with service unavailable")
+	void testMatches_saturated() throws Exception {
+		when(this.passwordEncoder.matches(any(), any())).thenAnswer(invocation -> {
+			this.release.await();
+			return true;
+		});
+
+		var running = this.service.matches("raw", "encoded");
+		var queued = this.service.matches("raw", "encoded");
+		var rejected = this.service.matches("raw", "encoded");
+
+		var exception = Assertions.assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+		assertThat(exception.getCause()).isInstanceOf(ServiceUnavailableException.class);
+		assertThat(this.meterRegistry.get("users.password.hashing.rejected").counter().count()).isEqualTo(1);
+
+		this.release.countDown();
+		assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+	}
+}
@@ -0,0 +1,227 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.stlo.api.config.CacheConfig;
+import com.stlo.api.config.ReplicaDataSources;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.db.User;
+import com.stlo.api.repository.ReplicaContext;
+import com.stlo.api.service.StripedCounterStoreTest.MutableClock;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest(properties = { "users.replicas.enabled=true", "users.replicas.max-lag=PT10S",
+		"users.replicas.heartbeat.initial-delay=PT1H",
+		"spring.datasource.url=" + ReplicaRoutingTest.PRIMARY_URL,
+		"users.replicas.urls=" + ReplicaRoutingTest.REPLICA_URL,
+		"spring.flyway.locations=classpath:db/migration" })
+class ReplicaRoutingTest {
+
+	static final String PRIMARY_URL = "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1";
+	static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+	private static final List<String> TABLES = List.of("users", "credentials", "credential_outbox", "replication_heartbeat");
+
+	@Autowired
+	UsersService usersService;
+
+	@Autowired
+	ReplicaMonitor replicaMonitor;
+
+	@Autowired
+	ReplicaDataSources dataSources;
+
+	@Autowired
+	CacheManager cacheManager;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	// stands in for the replication of the database, the pool of the replica is read-only
+	private final JdbcTemplate replication = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "test", "test"));
+
+	private long userId;
+
+	@BeforeEach
+	void init() {
+		Flyway.configure().dataSource(this.replication.getDataSource()).locations("classpath:db/migration").load().migrate();
+		var user = new User();
+		user.setName("Jon");
+		this.userId = this.usersService.createUser(user).getId();
+		this.cacheManager.getCache(CacheConfig.USERS).clear();
+	}
+
+	@AfterEach
+	void cleanup() {
+		var primary = new JdbcTemplate(this.dataSources.getPrimary());
+		primary.update("DELETE FROM credentials");
+		primary.update("DELETE FROM users");
+		replicate();
+	}
+
+	@Test
+	@DisplayName("#getUser and #getUserPage should read from a replica within the max lag")
+	void testRead_replica() {
+		assertThat(count(this.replication, this.userId)).isZero();
+		this.replicaMonitor.check(Instant.now());
+		replicate();
+		this.replication.update("UPDATE users SET name = 'Jon (replica)' WHERE id = ?", this.userId);
+		this.replicaMonitor.check(Instant.now());
+		double before = replicaQueries();
+
+		var user = this.usersService.getUser(this.userId);
+		var page = this.usersService.getUserPage(PageRequest.of(0, 10));
+
+		assertThat(user).map(UserDto::getName).hasValue("Jon (replica)");
+		assertThat(page.getContent()).extracting(UserDto::getName).containsExactly("Jon (replica)");
+		assertThat(replicaQueries()).isGreaterThan(before);
+	}
+
+	@Test
+	@DisplayName("#getUser should read from the primary while the replica lags behind the max lag")
+	void testRead_lagging() {
+		this.replicaMonitor.check(Instant.now());
+		replicate();
+		this.replication.update("UPDATE users SET name = 'Jon (replica)' WHERE id = ?", this.userId);
+		this.replicaMonitor.check(Instant.now().plus(Duration.ofMinutes(1)));
+
+		var user = this.usersService.getUser(this.userId);
+
+		assertThat(user).map(UserDto::getName).hasValue("Jon");
+		assertThat(this.replicaMonitor.getStatus()).extracting(status -> status.get("available")).containsExactly(true, false);
+	}
+
+	@Test
+	@DisplayName("#getUser should read from the primary when it is required")
+	void testRead_primaryRequired() {
+		this.replicaMonitor.check(Instant.now());
+		replicate();
+		this.replication.update("UPDATE users SET name = 'Jon (replica)' WHERE id = ?", this.userId);
+		this.replicaMonitor.check(Instant.now());
+
+		var user = ReplicaContext.onPrimary(() -> this.usersService.getUser(this.userId));
+
+		assertThat(user).map(UserDto::getName).hasValue("Jon");
+	}
+
+	@Test
+	@DisplayName("#getUser should not cache what a lagging replica reads after a create or a delete")
+	void testRead_laggingNotCached() {
+		this.replicaMonitor.check(Instant.now());
+		replicate();
+		this.replicaMonitor.check(Instant.now());
+		var user = new User();
+		user.setName("Tanya");
+		long createdId = this.usersService.createUser(user).getId();
+
+		assertThat(this.usersService.getUser(createdId)).isEmpty();
+		assertThat(this.cacheManager.getCache(CacheConfig.USERS).get(createdId)).isNull();
+
+		this.usersService.removeUser(this.userId);
+
+		assertThat(this.usersService.getUser(this.userId)).isPresent();
+		assertThat(this.cacheManager.getCache(CacheConfig.USERS).get(this.userId)).isNull();
+
+		replicate();
+
+		assertThat(this.usersService.getUser(createdId)).map(UserDto::getName).hasValue("Tanya");
+		assertThat(this.usersService.getUser(this.userId)).isEmpty();
+	}
+
+	@Test
+	@DisplayName("#getUser should cache what it reads from the primary")
+	void testRead_primaryCached() {
+		var user = ReplicaContext.onPrimary(() -> this.usersService.getUser(this.userId));
+
+		assertThat(user).isPresent();
+		assertThat(this.cacheManager.getCache(CacheConfig.USERS).get(this.userId)).isNotNull();
+	}
+
+	@Test
+	@DisplayName("#check should report a replica without the heartbeat table as not available")
+	void testCheck_unreachable() {
+		this.replication.execute("DROP TABLE replication_heartbeat");
+		try {
+			this.replicaMonitor.check(Instant.now());
+
+			assertThat(this.replicaMonitor.selectReplica()).isEqualTo(-1);
+			assertThat(this.usersService.getUser(this.userId)).isPresent();
+		} finally {
+			this.replication.execute("CREATE TABLE replication_heartbeat (id INT NOT NULL PRIMARY KEY, beat_at BIGINT NOT NULL)");
+		}
+	}
+
+	@Test
+	@DisplayName("#selectReplica should send no reads to replicas once the last check is older than the max lag")
+	void testSelectReplica_staleCheck() {
+		var clock = new MutableClock();
+		var monitor = new ReplicaMonitor(this.dataSources, Duration.ofSeconds(10), clock);
+		monitor.check(clock.instant());
+		replicate();
+		monitor.check(clock.instant());
+
+		assertThat(monitor.selectReplica()).isZero();
+
+		clock.advance(Duration.ofSeconds(11));
+
+		assertThat(monitor.selectReplica()).isEqualTo(-1);
+		assertThat(monitor.getStatus()).extracting(status -> status.get("available")).containsExactly(true, false);
+	}
+
+	@Test
+	@DisplayName("#check should commit the heartbeat when the pool of the primary does not auto-commit")
+	void testCheck_noAutoCommit() {
+		var primary = new HikariDataSource();
+		primary.setJdbcUrl(PRIMARY_URL);
+		primary.setUsername("test");
+		primary.setPassword("test");
+		primary.setAutoCommit(false);
+		var now = Instant.now();
+
+		try (var dataSources = new ReplicaDataSources(primary, List.of(REPLICA_URL))) {
+			new ReplicaMonitor(dataSources, Duration.ofSeconds(10)).check(now);
+		}
+
+		assertThat(new JdbcTemplate(this.dataSources.getPrimary())
+				.queryForObject("SELECT beat_at FROM replication_heartbeat WHERE id = 1", Long.class))
+				.isEqualTo(now.toEpochMilli());
+	}
+
+	private void replicate() {
+		var primary = new JdbcTemplate(this.dataSources.getPrimary());
+		for (var table : TABLES) {
+			this.replication.update("DELETE FROM " + table);
+			for (var row : primary.queryForList("SELECT * FROM " + table)) {
+				this.replication.update("INSERT INTO " + table + " (" + String.join(", ", row.keySet()) + ") VALUES ("
+						+ String.join(", ", Collections.nCopies(row.size(), "?")) + ")", row.values().toArray());
+			}
+		}
+	}
+
+	private double replicaQueries() {
+		return this.meterRegistry.get("users.datasource.queries").tag("datasource", "replica-1").functionCounter().count();
+	}
+
+	private static int count(JdbcTemplate jdbc, long userId) {
+		return jdbc.queryForObject("SELECT COUNT(*) FROM users WHERE id = ?", Integer.class, userId);
+	}
+}
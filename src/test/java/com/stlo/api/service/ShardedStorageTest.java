@@ -0,0 +1,213 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.stlo.api.config.CacheConfig;
+import com.stlo.api.config.ShardDataSources;
+import com.stlo.api.exception.GoneException;
+import com.stlo.api.model.UserChangeDto;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.db.User;
+import com.stlo.api.model.db.UserChange;
+import com.stlo.api.repository.ShardContext;
+
+@SpringBootTest(properties = { "users.sharding.enabled=true",
+		"spring.datasource.url=jdbc:h2:mem:shard-0;DB_CLOSE_DELAY=-1",
+		"users.sharding.urls=jdbc:h2:mem:shard-1;DB_CLOSE_DELAY=-1",
+		"spring.flyway.locations=classpath:db/migration", "users.sharding.rebalance.batch-size=2",
+		"users.changes.enabled=true" })
+class ShardedStorageTest {
+
+	@Autowired
+	UsersService usersService;
+
+	@Autowired
+	ShardRouter shardRouter;
+
+	@Autowired
+	ShardRebalancer shardRebalancer;
+
+	@Autowired
+	ShardDataSources shards;
+
+	@Autowired
+	UserChangeLog changeLog;
+
+	@Autowired
+	CacheManager cacheManager;
+
+	@AfterEach
+	void cleanup() {
+		for (int shard = 0; shard < this.shards.size(); shard++) {
+			var jdbc = new JdbcTemplate(this.shards.get(shard));
+			jdbc.update("DELETE FROM credentials");
+			jdbc.update("DELETE FROM credential_outbox");
+			jdbc.update("DELETE FROM users");
+		}
+		this.cacheManager.getCache(CacheConfig.USERS).clear();
+	}
+
+	@Test
+	@DisplayName("#createUser should spread users over the shards and #getUser should find them on theirs")
+	void testCreateUser_spread() {
+
+		var userIds = createUsers("Jon", "Tanya", "Eric", "Mia");
+
+		assertThat(userIds).extracting(this.shardRouter::shardOf).containsOnly(0, 1);
+		for (var userId : userIds) {
+			assertThat(count(this.shardRouter.shardOf(userId), "users", "id", userId)).isOne();
+			assertThat(count(this.shardRouter.shardOf(userId), "credentials", "user_id", userId)).isOne();
+			assertThat(this.usersService.getUser(userId)).isPresent();
+		}
+	}
+
+	@Test
+	@DisplayName("#getUserPage, #getUserSlice and #exportUsers should merge the shards in id order")
+	void testListings_merged() {
+		var userIds = createUsers("Jon", "Tanya", "Eric", "Mia", "Ada");
+		userIds.sort(null);
+
+		var page = this.usersService.getUserPage(PageRequest.of(1, 2));
+		var descending = this.usersService.getUserPage(PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "id")));
+		var slice = this.usersService.getUserSlice(userIds.get(0), 3);
+		var exported = new ArrayList<Long>();
+		this.usersService.exportUsers(user -> exported.add(user.getId()));
+
+		assertThat(page.getContent()).extracting(UserDto::getId).containsExactly(userIds.get(2), userIds.get(3));
+		assertThat(page.getTotalElements()).isEqualTo(5);
+		assertThat(descending.getContent()).extracting(UserDto::getId).containsExactly(userIds.get(4), userIds.get(3));
+		assertThat(slice.getContent()).extracting(UserDto::getId).containsExactlyElementsOf(userIds.subList(1, 4));
+		assertThat(slice.hasNext()).isTrue();
+		assertThat(exported).containsExactlyElementsOf(userIds);
+	}
+
+	@Test
+	@DisplayName("#removeUsers should remove the users of every shard")
+	void testRemoveUsers() {
+		var userIds = createUsers("Jon", "Tanya", "Eric");
+
+		var removed = this.usersService.removeUsers(userIds);
+
+		assertThat(removed).isEqualTo(3);
+		assertThat(userIds).allMatch(userId -> this.usersService.getUser(userId).isEmpty());
+	}
+
+	@Test
+	@DisplayName("#moveBuckets should move users with credentials, #rebalance should spread the buckets again")
+	void testMoveBuckets() {
+		var userIds = createUsers("Jon", "Tanya", "Eric", "Mia");
+		var moving = userIds.stream().filter(userId -> this.shardRouter.shardOf(userId) == 1).collect(Collectors.toList());
+		var buckets = moving.stream().map(ShardContext::bucketOf).collect(Collectors.toList());
+
+		var moved = this.shardRebalancer.moveBuckets(buckets, 0);
+		this.cacheManager.getCache(CacheConfig.USERS).clear();
+
+		assertThat(moved).isEqualTo(moving.size());
+		for (var userId : moving) {
+			assertThat(this.shardRouter.shardOf(userId)).isZero();
+			assertThat(count(0, "users", "id", userId)).isOne();
+			assertThat(count(0, "credentials", "user_id", userId)).isOne();
+			assertThat(count(1, "users", "id", userId)).isZero();
+			assertThat(this.usersService.getUser(userId)).isPresent();
+		}
+		assertThat(this.shardRouter.getBucketCounts()).containsExactly(512 + buckets.size(), 512 - buckets.size());
+
+		var rebalanced = this.shardRebalancer.rebalance();
+		this.cacheManager.getCache(CacheConfig.USERS).clear();
+
+		assertThat(this.shardRouter.getBucketCounts()).containsExactly(512, 512);
+		assertThat(rebalanced).isLessThanOrEqualTo(moving.size());
+		assertThat(userIds).allMatch(userId -> this.usersService.getUser(userId).isPresent());
+		assertThat(this.usersService.getUserPage(PageRequest.of(0, 10)).getTotalElements()).isEqualTo(4);
+	}
+
+	@Test
+	@DisplayName("#refresh should route buckets moved by another instance to their new shard")
+	void testRefresh_movedElsewhere() {
+		var userId = createUsers("Jon").get(0);
+		int bucket = ShardContext.bucketOf(userId);
+		int source = this.shardRouter.shardOf(userId);
+		var buckets = new JdbcTemplate(this.shards.get(0));
+
+		assertThat(this.shardRouter.refresh()).isZero();
+
+		buckets.update("UPDATE shard_buckets SET shard = ? WHERE bucket = ?", 1 - source, bucket);
+		try {
+			assertThat(this.shardRouter.refresh()).isOne();
+			assertThat(this.shardRouter.shardOf(userId)).isEqualTo(1 - source);
+		} finally {
+			buckets.update("UPDATE shard_buckets SET shard = ? WHERE bucket = ?", source, bucket);
+			this.shardRouter.refresh();
+		}
+		assertThat(this.shardRouter.shardOf(userId)).isEqualTo(source);
+	}
+
+	@Test
+	@DisplayName("#poll should return the changes of a shard from its own log, a move should truncate the log of the source")
+	void testChangeLog_perShard() throws Exception {
+		var heads = this.changeLog.getHeadSeqs();
+		var userIds = createUsers("Jon", "Tanya", "Eric", "Mia");
+		this.usersService.removeUser(userIds.get(0));
+
+		var changes = new ArrayList<UserChangeDto>();
+		for (int shard = 0; shard < this.shards.size(); shard++) {
+			int current = shard;
+			var page = this.changeLog.poll(shard, heads.get(shard), 10, Duration.ZERO).get(5, TimeUnit.SECONDS);
+
+			assertThat(page.getShard()).isEqualTo(shard);
+			assertThat(page.getChanges()).allMatch(change -> this.shardRouter.shardOf(change.getUserId()) == current);
+			changes.addAll(page.getChanges());
+		}
+		assertThat(changes).extracting(UserChangeDto::getType, UserChangeDto::getUserId).containsExactlyInAnyOrder(
+				tuple(UserChange.Type.CREATED, userIds.get(0)), tuple(UserChange.Type.CREATED, userIds.get(1)),
+				tuple(UserChange.Type.CREATED, userIds.get(2)), tuple(UserChange.Type.CREATED, userIds.get(3)),
+				tuple(UserChange.Type.REMOVED, userIds.get(0)));
+
+		var moved = userIds.subList(1, 4).stream().filter(userId -> this.shardRouter.shardOf(userId) == 1).findFirst().get();
+		this.shardRebalancer.moveBuckets(List.of(ShardContext.bucketOf(moved)), 0);
+		var head = this.changeLog.getHeadSeq(0);
+		this.usersService.removeUser(moved);
+
+		Assertions.assertThrows(GoneException.class, () -> this.changeLog.poll(1, heads.get(1), 10, Duration.ZERO));
+		assertThat(this.changeLog.poll(1, this.changeLog.getHeadSeq(1), 10, Duration.ZERO).get(5, TimeUnit.SECONDS)
+				.getChanges()).isEmpty();
+		assertThat(this.changeLog.poll(0, head, 10, Duration.ZERO).get(5, TimeUnit.SECONDS).getChanges())
+				.extracting(UserChangeDto::getType, UserChangeDto::getUserId)
+				.containsExactly(tuple(UserChange.Type.REMOVED, moved));
+
+		this.shardRebalancer.rebalance();
+	}
+
+	private List<Long> createUsers(String... names) {
+		var userIds = new ArrayList<Long>();
+		for (var name : names) {
+			var user = new User();
+			user.setName(name);
+			userIds.add(this.usersService.createUser(user).getId());
+		}
+		return userIds;
+	}
+
+	private int count(int shard, String table, String key, long id) {
+		return new JdbcTemplate(this.shards.get(shard))
+				.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE " + key + " = ?", Integer.class, id);
+	}
+}
@@ -0,0 +1,96 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class StripedCounterStoreTest {
+
+	private final MutableClock clock = new MutableClock();
+	private final StripedCounterStore store = new StripedCounterStore(this.clock, 4);
+
+	@Test
+	@DisplayName("#tryConsume should grant the capacity at once and then one token per interval")
+	void testTryConsume() {
+		var interval = Duration.ofSeconds(10);
+		for (int i = 0; i < 3; i++) {
+			assertThat(this.store.tryConsume("a", 3, interval)).isZero();
+		}
+
+		assertThat(this.store.tryConsume("a", 3, interval)).isEqualTo(10_000);
+		this.clock.advance(Duration.ofSeconds(4));
+		assertThat(this.store.tryConsume("a", 3, interval)).isEqualTo(6_000);
+		this.clock.advance(Duration.ofSeconds(6));
+		assertThat(this.store.tryConsume("a", 3, interval)).isZero();
+		assertThat(this.store.tryConsume("b", 3, interval)).isZero();
+	}
+
+	@Test
+	@DisplayName("#recordFailure should count within the window and start over after it")
+	void testRecordFailure() {
+		var window = Duration.ofMinutes(1);
+
+		assertThat(this.store.recordFailure("a", window)).isEqualTo(1);
+		this.clock.advance(Duration.ofSeconds(59));
+		assertThat(this.store.recordFailure("a", window)).isEqualTo(2);
+		this.clock.advance(Duration.ofSeconds(60));
+		assertThat(this.store.recordFailure("a", window)).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("#block should keep the longer block and #reset should clear it")
+	void testBlock() {
+		this.store.block("a", Duration.ofSeconds(30));
+		this.store.block("a", Duration.ofSeconds(10));
+
+		assertThat(this.store.blockedFor("a")).isEqualTo(30_000);
+		assertThat(this.store.blockedFor("b")).isZero();
+		this.store.reset("a");
+		assertThat(this.store.blockedFor("a")).isZero();
+	}
+
+	@Test
+	@DisplayName("#evictExpired should drop keys with full buckets, no failures and no block only")
+	void testEvictExpired() {
+		this.store.tryConsume("bucket", 1, Duration.ofSeconds(10));
+		this.store.recordFailure("failures", Duration.ofSeconds(30));
+		this.store.block("blocked", Duration.ofSeconds(60));
+
+		this.clock.advance(Duration.ofSeconds(30));
+		this.store.evictExpired();
+
+		assertThat(this.store.size()).isEqualTo(1);
+		assertThat(this.store.blockedFor("blocked")).isEqualTo(30_000);
+	}
+
+	static final class MutableClock extends Clock {
+
+		private Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+
+		void advance(Duration duration) {
+			this.instant = this.instant.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return this.instant;
+		}
+	}
+}
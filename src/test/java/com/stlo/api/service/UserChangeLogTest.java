@@ -0,0 +1,200 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.stlo.api.config.ShardingConfig;
+import com.stlo.api.exception.GoneException;
+import com.stlo.api.model.UserChangeDto;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.db.User;
+import com.stlo.api.model.db.UserChange;
+import com.stlo.api.repository.UserChangesRepository;
+import com.stlo.api.repository.UsersRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// entries are written right before a commit, the test must not hold a transaction
+@DataJpaTest(properties = { "users.changes.enabled=true", "users.changes.compaction.batch-size=2", "spring.flyway.locations=classpath:db/migration" })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ UserChangeLog.class, ShardingConfig.class, SimpleMeterRegistry.class })
+class UserChangeLogTest {
+
+	@Autowired
+	UserChangeLog changeLog;
+
+	@Autowired
+	UserChangesRepository changesRepository;
+
+	@Autowired
+	UsersRepository usersRepository;
+
+	@Autowired
+	ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	private long start;
+
+	@BeforeEach
+	void init() {
+		this.start = this.changeLog.getHeadSeq(0);
+	}
+
+	@AfterEach
+	void cleanup() {
+		this.changesRepository.deleteAllInBatch();
+		this.usersRepository.deleteAllInBatch();
+	}
+
+	@Test
+	@DisplayName("#poll should return created and removed users in seq order")
+	void testPoll() throws Exception {
+		var userIds = createUsers("Jon", "Tanya");
+		removeUsers(userIds.get(0));
+
+		var page = this.changeLog.poll(0, this.start, 10, Duration.ZERO).get(5, TimeUnit.SECONDS);
+
+		assertThat(page.getChanges())
+				.extracting(UserChangeDto::getSeq, UserChangeDto::getType, UserChangeDto::getUserId, UserChangeDto::getName)
+				.containsExactly(
+						tuple(this.start + 1, UserChange.Type.CREATED, userIds.get(0), "Jon"),
+						tuple(this.start + 2, UserChange.Type.CREATED, userIds.get(1), "Tanya"),
+						tuple(this.start + 3, UserChange.Type.REMOVED, userIds.get(0), null));
+		assertThat(page.getNext()).isEqualTo(this.start + 3);
+		assertThat(this.changeLog.getHeadSeq(0)).isEqualTo(this.start + 3);
+	}
+
+	@Test
+	@DisplayName("#poll should resume after since and stop at limit")
+	void testPoll_resume() throws Exception {
+		createUsers("Jon", "Tanya", "Eric");
+
+		var first = this.changeLog.poll(0, this.start, 2, Duration.ZERO).get(5, TimeUnit.SECONDS);
+		var second = this.changeLog.poll(0, first.getNext(), 2, Duration.ZERO).get(5, TimeUnit.SECONDS);
+
+		assertThat(first.getChanges()).extracting(UserChangeDto::getName).containsExactly("Jon", "Tanya");
+		assertThat(second.getChanges()).extracting(UserChangeDto::getName).containsExactly("Eric");
+		assertThat(second.getNext()).isEqualTo(this.start + 3);
+	}
+
+	@Test
+	@DisplayName("#poll without changes should complete with the next commit")
+	void testPoll_wait() throws Exception {
+
+		var poll = this.changeLog.poll(0, this.start, 10, Duration.ofSeconds(10));
+		assertThat(poll).isNotDone();
+		var userIds = createUsers("Jon");
+
+		var page = poll.get(5, TimeUnit.SECONDS);
+		assertThat(page.getChanges()).extracting(UserChangeDto::getUserId).containsExactly(userIds.get(0));
+	}
+
+	@Test
+	@DisplayName("#poll without changes within the wait should complete with an empty page")
+	void testPoll_timeout() throws Exception {
+
+		var page = this.changeLog.poll(0, this.start, 10, Duration.ofMillis(50)).get(5, TimeUnit.SECONDS);
+
+		assertThat(page.getChanges()).isEmpty();
+		assertThat(page.getNext()).isEqualTo(this.start);
+	}
+
+	@Test
+	@DisplayName("#poll should not see changes of a rolled back transaction")
+	void testPoll_rollback() throws Exception {
+		var transactionTemplate = new TransactionTemplate(this.transactionManager);
+		transactionTemplate.executeWithoutResult(status -> {
+			var user = new User();
+			user.setName("Jon");
+			this.eventPublisher.publishEvent(new UsersCreatedEvent(List.of(UserDto.of(this.usersRepository.save(user)))));
+			status.setRollbackOnly();
+		});
+
+		var page = this.changeLog.poll(0, this.start, 10, Duration.ZERO).get(5, TimeUnit.SECONDS);
+
+		assertThat(page.getChanges()).isEmpty();
+		assertThat(this.changeLog.getHeadSeq(0)).isEqualTo(this.start);
+	}
+
+	@Test
+	@DisplayName("#compactSuperseded should remove created entries of removed users only")
+	void testCompactSuperseded() throws Exception {
+		var userIds = createUsers("Jon", "Tanya", "Eric");
+		removeUsers(userIds.get(0), userIds.get(2));
+
+		var compacted = this.changeLog.compactSuperseded();
+
+		assertThat(compacted).isEqualTo(2);
+		var page = this.changeLog.poll(0, this.start, 10, Duration.ZERO).get(5, TimeUnit.SECONDS);
+		assertThat(page.getChanges())
+				.extracting(UserChangeDto::getType, UserChangeDto::getUserId)
+				.containsExactly(
+						tuple(UserChange.Type.CREATED, userIds.get(1)),
+						tuple(UserChange.Type.REMOVED, userIds.get(0)),
+						tuple(UserChange.Type.REMOVED, userIds.get(2)));
+	}
+
+	@Test
+	@DisplayName("#truncate should remove expired entries and turn away polls behind them")
+	void testTruncate() throws Exception {
+		createUsers("Jon", "Tanya", "Eric");
+
+		var truncated = this.changeLog.truncate(Instant.now().plusSeconds(1));
+
+		assertThat(truncated).isEqualTo(3);
+		assertThat(this.changesRepository.count()).isZero();
+		Assertions.assertThrows(GoneException.class, () -> this.changeLog.poll(0, this.start, 10, Duration.ZERO));
+		assertThat(this.changeLog.poll(0, this.start + 3, 10, Duration.ZERO).get(5, TimeUnit.SECONDS).getChanges()).isEmpty();
+	}
+
+	private List<Long> createUsers(String... names) {
+		var transactionTemplate = new TransactionTemplate(this.transactionManager);
+		return transactionTemplate.execute(status -> {
+			var users = new ArrayList<User>();
+			for (var name : names) {
+				var user = new User();
+				user.setName(name);
+				users.add(user);
+			}
+			var saved = this.usersRepository.saveAll(users);
+			var created = new ArrayList<UserDto>();
+			var userIds = new ArrayList<Long>();
+			for (var user : saved) {
+				created.add(UserDto.of(user));
+				userIds.add(user.getId());
+			}
+			this.eventPublisher.publishEvent(new UsersCreatedEvent(created));
+			return userIds;
+		});
+	}
+
+	private void removeUsers(Long... userIds) {
+		var transactionTemplate = new TransactionTemplate(this.transactionManager);
+		transactionTemplate.executeWithoutResult(status -> {
+			this.eventPublisher.publishEvent(new UsersRemovedEvent(List.of(userIds)));
+			this.usersRepository.deleteByIdIn(List.of(userIds));
+		});
+	}
+}
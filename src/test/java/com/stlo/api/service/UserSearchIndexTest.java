@@ -0,0 +1,84 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.stlo.api.model.UserDto;
+import com.stlo.api.repository.UsersRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class UserSearchIndexTest {
+
+	private final UsersRepository usersRepository = mock(UsersRepository.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final UserSearchIndex index = new UserSearchIndex(this.usersRepository, mock(PlatformTransactionManager.class),
+			this.meterRegistry, ShardRouter.single(), true);
+
+	@BeforeEach
+	void init() {
+		when(this.usersRepository.streamAll()).thenReturn(Stream.of(
+				new UserDto(1L, "Jon Smith"),
+				new UserDto(2L, "Tanya"),
+				new UserDto(3L, "Éric Jonas"),
+				new UserDto(4L, "jonathan")));
+		this.index.afterSingletonsInstantiated();
+	}
+
+	@Test
+	@DisplayName("#search should match word prefixes ignoring case and accents")
+	void testSearch_prefix() {
+
+		assertThat(ids("JON")).containsExactly(1L, 3L, 4L);
+		assertThat(ids("eri")).containsExactly(3L);
+		assertThat(ids("smi")).containsExactly(1L);
+		assertThat(ids("x")).isEmpty();
+	}
+
+	@Test
+	@DisplayName("#search with several words should match users with all of them")
+	void testSearch_allWords() {
+
+		assertThat(ids("jo sm")).containsExactly(1L);
+	}
+
+	@Test
+	@DisplayName("#search should page through the matches")
+	void testSearch_paged() {
+
+		var first = this.index.search("jon", PageRequest.of(0, 2));
+		var second = this.index.search("jon", PageRequest.of(1, 2));
+
+		assertThat(first.getContent()).extracting(UserDto::getId).containsExactly(1L, 3L);
+		assertThat(first.hasNext()).isTrue();
+		assertThat(second.getContent()).extracting(UserDto::getId).containsExactly(4L);
+		assertThat(second.hasNext()).isFalse();
+	}
+
+	@Test
+	@DisplayName("created and removed users should update the index")
+	void testEvents() {
+
+		this.index.onCreated(new UsersCreatedEvent(List.of(new UserDto(5L, "Jonny"))));
+		this.index.onRemoved(new UsersRemovedEvent(List.of(1L, 99L)));
+
+		assertThat(ids("jon")).containsExactly(3L, 4L, 5L);
+		assertThat(this.meterRegistry.get("users.search.index.users").gauge().value()).isEqualTo(4);
+		assertThat(this.meterRegistry.get("users.search.index.entries").gauge().value()).isEqualTo(5);
+	}
+
+	private List<Long> ids(String query) {
+		return this.index.search(query, PageRequest.of(0, 20)).map(UserDto::getId).getContent();
+	}
+}
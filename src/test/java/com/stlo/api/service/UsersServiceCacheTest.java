@@ -0,0 +1,67 @@
+package com.stlo.api.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import com.stlo.api.config.CacheConfig;
+import com.stlo.api.model.db.User;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:cache-test")
+class UsersServiceCacheTest {
+
+	@Autowired
+	UsersService usersService;
+
+	@Autowired
+	CacheManager cacheManager;
+
+	private Cache cache;
+
+	@BeforeEach
+	void init() {
+		this.cache = this.cacheManager.getCache(CacheConfig.USERS);
+		this.cache.clear();
+	}
+
+	@Test
+	@DisplayName("#getUser should cache the user and unknown ids")
+	void testGetUser_cached() {
+
+		var user = this.usersService.getUser(1L);
+		var unknown = this.usersService.getUser(-1L);
+
+		assertThat(user).isPresent();
+		assertThat(unknown).isEmpty();
+		assertThat(this.cache.get(1L, Object.class)).isSameAs(user.get());
+		assertThat(this.cache.get(-1L)).isNotNull();
+		assertThat(this.usersService.getUser(1L).get()).isSameAs(user.get());
+	}
+
+	@Test
+	@DisplayName("#createUser and #removeUser should evict the id")
+	void testCreateAndRemove_evict() {
+		var user = new User();
+		user.setName("Cached");
+		var nextId = this.usersService.createUser(user).getId() + 1;
+		assertThat(this.usersService.getUser(nextId)).isEmpty();
+
+		user = new User();
+		user.setName("Cached");
+		var created = this.usersService.createUser(user);
+
+		assertThat(created.getId()).isEqualTo(nextId);
+		assertThat(this.usersService.getUser(nextId)).isPresent();
+
+		this.usersService.removeUser(nextId);
+
+		assertThat(this.cache.get(nextId)).isNull();
+		assertThat(this.usersService.getUser(nextId)).isEmpty();
+	}
+}
@@ -2,11 +2,26 @@ package com.stlo.api.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
@@ -15,23 +30,42 @@ import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import com.stlo.api.config.ExecutionConfig;
 import com.stlo.api.config.SecurityConfig;
+import com.stlo.api.config.ShardingConfig;
+import com.stlo.api.exception.TooManyRequestsException;
+import com.stlo.api.model.BatchItemResult;
 import com.stlo.api.model.Login;
+import com.stlo.api.model.UserDto;
+import com.stlo.api.model.UserLogin;
 import com.stlo.api.model.db.User;
 import com.stlo.api.model.db.UserCredential;
 import com.stlo.api.repository.CredentialsRepository;
 import com.stlo.api.repository.UsersRepository;
 
-@SpringBootTest(classes = UsersService.class)
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RecordApplicationEvents
+@SpringBootTest(classes = { UsersService.class, ExecutionConfig.class, ShardingConfig.class, ConcurrentMapCacheManager.class, SimpleMeterRegistry.class })
 public class UsersServiceTest {
 
 	@Autowired
 	UsersService usersService;
 
+	@Autowired
+	MeterRegistry meterRegistry;
+
 	@MockBean
 	UsersRepository usersRepository;
 
@@ -42,17 +76,38 @@ public class UsersServiceTest {
 	PasswordEncoder passwordEncoder;
 
 	@MockBean
-	SecurityConfig securityConfig;
+	PasswordHashingService passwordHashingService;
+
+	@MockBean
+	DefaultCredentialService defaultCredentialService;
+
+	@MockBean
+	PlatformTransactionManager transactionManager;
+
+	@MockBean
+	Validator validator;
+
+	@MockBean
+	UserSearchIndex searchIndex;
+
+	@MockBean
+	LoginThrottle loginThrottle;
+
+	@MockBean
+	CredentialOutbox credentialOutbox;
+
+	@MockBean
+	UserChangeLog changeLog;
 
 	@Test
 	@DisplayName("#createUser should save user and credentials and return user")
 	void testCreateUser() {
 		var captorCredential = ArgumentCaptor.forClass(UserCredential.class);
 		var captorUser = ArgumentCaptor.forClass(User.class);
-		var user = new User();
+		var user = new User(1L, "MyName");
 		when(this.usersRepository.save(user)).thenReturn(user);
-		when(this.passwordEncoder.encode(any())).thenReturn("password");
-		var credential = new UserCredential(null, "password");
+		when(this.defaultCredentialService.hash()).thenReturn("password");
+		var credential = new UserCredential(1L, "password");
 
 		var result = this.usersService.createUser(user);
 
@@ -63,6 +118,49 @@ public class UsersServiceTest {
 		assertThat(captorUser.getValue()).usingRecursiveComparison().isEqualTo(user);
 	}
 
+	@Test
+	@DisplayName("#createUser in outbox mode should add an outbox entry instead of hashing and saving a credential")
+	void testCreateUser_outbox() {
+		var user = new User(1L, "MyName");
+		when(this.usersRepository.save(user)).thenReturn(user);
+		when(this.credentialOutbox.isEnabled()).thenReturn(true);
+
+		this.usersService.createUser(user);
+
+		verify(this.credentialOutbox, times(1)).add(List.of(1L));
+		verify(this.credentialsRepository, times(0)).save(any());
+		verify(this.defaultCredentialService, times(0)).hash();
+	}
+
+	@Test
+	@DisplayName("#createUser should publish the created user")
+	void testCreateUser_event(@Autowired ApplicationEvents events) {
+		var user = new User(1L, "MyName");
+		when(this.usersRepository.save(user)).thenReturn(user);
+
+		this.usersService.createUser(user);
+
+		assertThat(events.stream(UsersCreatedEvent.class))
+				.singleElement()
+				.satisfies(event -> assertThat(event.getUsers()).extracting(UserDto::getId).containsExactly(1L));
+	}
+
+	@Test
+	@DisplayName("#createUser should hash the default password before opening the transaction")
+	void testCreateUser_hashBeforeTransaction() {
+		var user = new User(1L, "MyName");
+		when(this.usersRepository.save(user)).thenReturn(user);
+		when(this.defaultCredentialService.hash()).thenReturn("password");
+
+		this.usersService.createUser(user);
+
+		var order = inOrder(this.defaultCredentialService, this.transactionManager, this.usersRepository);
+		order.verify(this.defaultCredentialService).hash();
+		order.verify(this.transactionManager).getTransaction(any());
+		order.verify(this.usersRepository).save(user);
+		order.verify(this.transactionManager).commit(any());
+	}
+
 	@Test
 	@DisplayName("#createUser with null should throw null pointer expection")
 	void testCreateUser_withNull() {
@@ -76,11 +174,46 @@ public class UsersServiceTest {
 		});
 	}
 
+	@Test
+	@DisplayName("#createUsers should save valid users with credentials and report every item")
+	@SuppressWarnings("unchecked")
+	void testCreateUsers() {
+		var valid = new User(1L, "MyName");
+		var invalid = new User();
+		ConstraintViolation<User> violation = mock(ConstraintViolation.class);
+		when(violation.getMessage()).thenReturn("must not be empty");
+		when(this.validator.validate(invalid)).thenReturn(Set.of(violation));
+		when(this.usersRepository.saveAll(List.of(valid))).thenReturn(List.of(valid));
+		when(this.defaultCredentialService.hash()).thenReturn("password");
+
+		var result = this.usersService.createUsers(Arrays.asList(valid, invalid, null).iterator());
+
+		assertThat(result).extracting(BatchItemResult::getIndex).containsExactly(0L, 1L, 2L);
+		assertThat(result).extracting(BatchItemResult::getStatus).containsExactly(
+				BatchItemResult.Status.CREATED, BatchItemResult.Status.INVALID, BatchItemResult.Status.INVALID);
+		verify(this.credentialsRepository, times(1)).saveAll(any());
+		verify(this.transactionManager, times(1)).commit(any());
+	}
+
+	@Test
+	@DisplayName("#createUsers should use one transaction per chunk")
+	void testCreateUsers_chunks() {
+		when(this.usersRepository.saveAll(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(this.defaultCredentialService.hash()).thenReturn("password");
+		var ids = new AtomicLong();
+		var users = Stream.generate(() -> new User(ids.incrementAndGet(), "MyName")).limit(501).iterator();
+
+		var result = this.usersService.createUsers(users);
+
+		assertThat(result).hasSize(501).allMatch(item -> item.getStatus() == BatchItemResult.Status.CREATED);
+		verify(this.transactionManager, times(2)).commit(any());
+	}
+
 	@Test
 	@DisplayName("#getUser should call repository and return user")
 	void testGetUser() {
-		var user = Optional.of(new User());
-		when(this.usersRepository.findById(123L)).thenReturn(user);
+		var user = Optional.of(new UserDto(123L, "Jon"));
+		when(this.usersRepository.findDtoById(123L)).thenReturn(user);
 
 		var result = this.usersService.getUser(123L);
 
@@ -100,12 +233,48 @@ public class UsersServiceTest {
 	}
 
 	@Test
-	@DisplayName("#removeUser should call repository")
+	@DisplayName("#removeUser should delete credential and user without loading them")
 	void testRemoveUser() {
+		when(this.usersRepository.findIdByIdIn(List.of(123L))).thenReturn(List.of(123L));
 
 		this.usersService.removeUser(123L);
 
-		verify(this.usersRepository, times(1)).deleteById(123L);
+		verify(this.credentialsRepository, times(1)).deleteByUserIdIn(List.of(123L));
+		verify(this.usersRepository, times(1)).deleteByIdIn(List.of(123L));
+		verify(this.usersRepository, times(0)).findById(any());
+	}
+
+	@Test
+	@DisplayName("#removeUsers should delete the credentials and users that exist in one transaction and publish only them")
+	void testRemoveUsers(@Autowired ApplicationEvents events) {
+		var ids = List.of(1L, 2L, 3L);
+		var existing = List.of(1L, 3L);
+		when(this.usersRepository.findIdByIdIn(ids)).thenReturn(existing);
+		when(this.usersRepository.deleteByIdIn(existing)).thenReturn(2);
+
+		var result = this.usersService.removeUsers(ids);
+
+		assertThat(result).isEqualTo(2);
+		var order = inOrder(this.transactionManager, this.credentialsRepository, this.usersRepository);
+		order.verify(this.transactionManager).getTransaction(any());
+		order.verify(this.usersRepository).findIdByIdIn(ids);
+		order.verify(this.credentialsRepository).deleteByUserIdIn(existing);
+		order.verify(this.usersRepository).deleteByIdIn(existing);
+		order.verify(this.transactionManager).commit(any());
+		assertThat(events.stream(UsersRemovedEvent.class))
+				.singleElement()
+				.satisfies(event -> assertThat(event.getUserIds()).containsExactlyInAnyOrderElementsOf(existing));
+	}
+
+	@Test
+	@DisplayName("#removeUsers of unknown ids should neither delete nor publish anything")
+	void testRemoveUsers_unknown(@Autowired ApplicationEvents events) {
+
+		var result = this.usersService.removeUsers(List.of(1L, 2L));
+
+		assertThat(result).isZero();
+		verify(this.usersRepository, times(0)).deleteByIdIn(any());
+		assertThat(events.stream(UsersRemovedEvent.class)).isEmpty();
 	}
 
 	@Test
@@ -123,15 +292,38 @@ public class UsersServiceTest {
 	@Test
 	@DisplayName("#getUserPage should call repository with pageable and return users page")
 	void testGetUserPage() {
-		Page<User> expected = Page.empty();
+		Page<UserDto> expected = Page.empty();
 		var pageable = PageRequest.of(0, 10);
-		when(this.usersRepository.findAll(pageable)).thenReturn(expected);
+		when(this.usersRepository.findDtoPage(pageable)).thenReturn(expected);
 
 		var result = this.usersService.getUserPage(pageable);
 
 		assertThat(result).isEqualTo(expected);
 	}
 
+	@Test
+	@DisplayName("#getUserSlice should run keyset query after the given id")
+	void testGetUserSlice() {
+		Slice<UserDto> expected = new SliceImpl<>(List.of());
+		when(this.usersRepository.findDtoByIdGreaterThan(42L, PageRequest.ofSize(10))).thenReturn(expected);
+
+		var result = this.usersService.getUserSlice(42L, 10);
+
+		assertThat(result).isEqualTo(expected);
+	}
+
+	@Test
+	@DisplayName("#exportUsers should pass every streamed user to the consumer")
+	void testExportUsers() {
+		var users = List.of(new UserDto(1L, "Jon"), new UserDto(2L, "Tanya"));
+		when(this.usersRepository.streamAll()).thenReturn(users.stream());
+		var exported = new ArrayList<UserDto>();
+
+		this.usersService.exportUsers(exported::add);
+
+		assertThat(exported).isEqualTo(users);
+	}
+
 	@Test
 	@DisplayName("#getUserPage with null should throw null pointer expection")
 	void testGetUserPage_withNull() {
@@ -150,12 +342,52 @@ public class UsersServiceTest {
 		var login  = new Login();
 		login.setPassword("abc");
 		login.setUserId(1L);
-		when(this.credentialsRepository.findByUserId(1L)).thenReturn(Optional.of(new UserCredential(1L, "")));
-		when(this.passwordEncoder.matches(any(), any())).thenReturn(true);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.of(new UserLogin(1L, "Jon", "")));
+		when(this.passwordHashingService.matches(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
 		
-		var result = this.usersService.login(login);
+		var result = this.usersService.login(login, "10.0.0.1");
 
-		assertThat(result).isTrue();
+		assertThat(result).isCompleted();
+		assertThat(result.join()).hasValueSatisfying(user -> assertThat(user.getName()).isEqualTo("Jon"));
+	}
+
+	@Test
+	@DisplayName("#login with matching password and outdated hash should store a new hash off the hashing executor")
+	void testLogin_outdatedHash() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.of(new UserLogin(1L, "Jon", "old")));
+		when(this.passwordHashingService.matches(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+		when(this.passwordEncoder.upgradeEncoding("old")).thenReturn(true);
+		when(this.passwordHashingService.encode("abc")).thenReturn(CompletableFuture.completedFuture("new"));
+		var writer = new AtomicReference<String>();
+		when(this.credentialsRepository.updatePassword(1L, "old", "new")).thenAnswer(invocation -> {
+			writer.set(Thread.currentThread().getName());
+			return 1;
+		});
+
+		var result = this.usersService.login(login, "10.0.0.1");
+
+		assertThat(result.join()).isPresent();
+		verify(this.credentialsRepository, timeout(1000).times(1)).updatePassword(1L, "old", "new");
+		assertThat(writer.get()).isEqualTo("password-rehash");
+	}
+
+	@Test
+	@DisplayName("#login with matching password and current hash should not rehash")
+	void testLogin_currentHash() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.of(new UserLogin(1L, "Jon", "current")));
+		when(this.passwordHashingService.matches(any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+		when(this.passwordEncoder.upgradeEncoding("current")).thenReturn(false);
+
+		this.usersService.login(login, "10.0.0.1").join();
+
+		verify(this.passwordHashingService, times(0)).encode(any());
+		verify(this.credentialsRepository, times(0)).updatePassword(any(), any(), any());
 	}
 
 	@Test
@@ -164,11 +396,108 @@ public class UsersServiceTest {
 		var login  = new Login();
 		login.setPassword("abc");
 		login.setUserId(1L);
-		when(this.credentialsRepository.findByUserId(1L)).thenReturn(Optional.of(new UserCredential(1L, "")));
-		when(this.passwordEncoder.matches(any(), any())).thenReturn(false);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.of(new UserLogin(1L, "Jon", "")));
+		when(this.passwordHashingService.matches(any(), any())).thenReturn(CompletableFuture.completedFuture(false));
 		
-		var result = this.usersService.login(login);
+		var result = this.usersService.login(login, "10.0.0.1");
+
+		assertThat(result).isCompletedWithValue(Optional.empty());
+	}
+
+	@Test
+	@DisplayName("#login with unknown user should not hash")
+	void testLogin_unknownUser() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.empty());
+
+		var result = this.usersService.login(login, "10.0.0.1");
+
+		assertThat(result).isCompletedWithValue(Optional.empty());
+		verify(this.passwordHashingService, times(0)).matches(any(), any());
+	}
+
+	@Test
+	@DisplayName("#login with a credential in the outbox should verify the default password")
+	void testLogin_pendingCredential() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.empty());
+		when(this.credentialOutbox.isPending(1L)).thenReturn(true);
+		when(this.usersRepository.findDtoById(1L)).thenReturn(Optional.of(new UserDto(1L, "Jon")));
+		when(this.passwordHashingService.matches("abc", SecurityConfig.DEFAULT_PASSWORD_MARKER))
+				.thenReturn(CompletableFuture.completedFuture(true));
+
+		var result = this.usersService.login(login, "10.0.0.1");
+
+		assertThat(result.join()).hasValueSatisfying(user -> assertThat(user.getName()).isEqualTo("Jon"));
+	}
+
+	@Test
+	@DisplayName("#login throttled should fail before the credentials are read")
+	void testLogin_throttled() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		doThrow(new TooManyRequestsException(3)).when(this.loginThrottle).acquire(1L, "10.0.0.1");
+		var before = count("login", UsersService.THROTTLED);
+
+		Assertions.assertThrows(TooManyRequestsException.class, () -> this.usersService.login(login, "10.0.0.1"));
+
+		verify(this.credentialsRepository, times(0)).findLoginByUserId(any());
+		verify(this.passwordHashingService, times(0)).matches(any(), any());
+		assertThat(count("login", UsersService.THROTTLED)).isEqualTo(before + 1);
+	}
+
+	@Test
+	@DisplayName("#login should report failures and successes to the throttle")
+	void testLogin_throttleFeedback() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.of(new UserLogin(1L, "Jon", "")));
+		when(this.passwordHashingService.matches(any(), any()))
+				.thenReturn(CompletableFuture.completedFuture(false))
+				.thenReturn(CompletableFuture.completedFuture(true));
+
+		this.usersService.login(login, "10.0.0.1").join();
+		this.usersService.login(login, "10.0.0.1").join();
+
+		var order = inOrder(this.loginThrottle);
+		order.verify(this.loginThrottle).onFailure(1L);
+		order.verify(this.loginThrottle).onSuccess(1L);
+	}
+
+	@Test
+	@DisplayName("#login should be timed with the authentication outcome")
+	void testLogin_metrics() {
+		var login  = new Login();
+		login.setPassword("abc");
+		login.setUserId(1L);
+		when(this.credentialsRepository.findLoginByUserId(1L)).thenReturn(Optional.of(new UserLogin(1L, "Jon", "")));
+		when(this.passwordHashingService.matches(any(), any())).thenReturn(CompletableFuture.completedFuture(false));
+		var before = count("login", UsersService.AUTH_FAIL);
+
+		this.usersService.login(login, "10.0.0.1").join();
+
+		assertThat(count("login", UsersService.AUTH_FAIL)).isEqualTo(before + 1);
+	}
+
+	@Test
+	@DisplayName("#getUser should be timed as not found for unknown users")
+	void testGetUser_metrics() {
+		when(this.usersRepository.findDtoById(1L)).thenReturn(Optional.empty());
+		var before = count("getUser", UsersService.NOT_FOUND);
+
+		this.usersService.getUser(1L);
+
+		assertThat(count("getUser", UsersService.NOT_FOUND)).isEqualTo(before + 1);
+	}
 
-		assertThat(result).isFalse();
+	private long count(String method, String outcome) {
+		var timer = this.meterRegistry.find(UsersService.METRIC).tags("method", method, "outcome", outcome).timer();
+		return timer == null ? 0 : timer.count();
 	}
 }